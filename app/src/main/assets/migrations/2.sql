@@ -0,0 +1,2 @@
+CREATE INDEX IF NOT EXISTS index_call_session_timestamp ON call_session (timestamp);
+CREATE INDEX IF NOT EXISTS index_minute_steps_call_session ON minute_steps (call_session);
@@ -55,6 +55,9 @@ import com.joanzapata.iconify.fonts.FontAwesomeIcons;
 
 import org.joda.time.DateTime;
 import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.DailyStats;
+import fi.craplab.roameo.model.DatabaseWriter;
+import fi.craplab.roameo.model.SummaryStats;
 import fi.craplab.roameo.sensor.SensorService;
 import fi.craplab.roameo.share.GoogleFitClientBuilder;
 import fi.craplab.roameo.share.GoogleFitDeleteTask;
@@ -279,10 +282,101 @@ public class MainActivity extends AppCompatActivity
                     Toast.makeText(this, "Sensor service not bound!", Toast.LENGTH_SHORT).show();
                     DebugLog.e(TAG, "Sensor service not bound!");
                 }
+            } else if (id == R.id.testing_start_trace) {
+                if (mSensorBound) {
+                    mSensorService.testingStartTraceRecording();
+                    Toast.makeText(this, "Trace recording started", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this, "Sensor service not bound!", Toast.LENGTH_SHORT).show();
+                    DebugLog.e(TAG, "Sensor service not bound!");
+                }
+
+            } else if (id == R.id.testing_stop_trace) {
+                if (mSensorBound) {
+                    mSensorService.testingStopTraceRecording();
+                    Toast.makeText(this, "Trace recording stopped", Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(this, "Sensor service not bound!", Toast.LENGTH_SHORT).show();
+                    DebugLog.e(TAG, "Sensor service not bound!");
+                }
+
             } else if (id == R.id.testing_create_random) {
-                CallSession callSession = TestDbUtils.createRandomCallSession(this);
-                Toast.makeText(this, "Random session created for "
-                        + new DateTime(callSession.timestamp), Toast.LENGTH_SHORT).show();
+                final Context context = getApplicationContext();
+                DatabaseWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final CallSession callSession = TestDbUtils.createRandomCallSession(context);
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Toast.makeText(context, "Random session created for "
+                                        + new DateTime(callSession.timestamp),
+                                        Toast.LENGTH_SHORT).show();
+                            }
+                        });
+                    }
+                });
+
+            } else if (id == R.id.testing_benchmark_minute_steps) {
+                Toast.makeText(this, "Benchmark running, see log", Toast.LENGTH_SHORT).show();
+                DatabaseWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        TestDbUtils.benchmarkMinuteStepsInsert();
+                    }
+                });
+
+            } else if (id == R.id.testing_benchmark_indexes) {
+                Toast.makeText(this, "Benchmark running, see log", Toast.LENGTH_SHORT).show();
+                final Context context = getApplicationContext();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        DebugLog.i(TAG, "All queries use their index: "
+                                + TestDbUtils.benchmarkIndexes(context));
+                    }
+                }).start();
+
+            } else if (id == R.id.testing_benchmark_storage) {
+                Toast.makeText(this, "Benchmark running, see log", Toast.LENGTH_SHORT).show();
+                final Context context = getApplicationContext();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        TestDbUtils.benchmarkMinuteStorage(context);
+                    }
+                }).start();
+
+            } else if (id == R.id.testing_benchmark_loading) {
+                Toast.makeText(this, "Benchmark running, see log", Toast.LENGTH_SHORT).show();
+                DatabaseWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        TestDbUtils.benchmarkSessionLoading();
+                    }
+                });
+
+            } else if (id == R.id.testing_benchmark_contention) {
+                Toast.makeText(this, "Benchmark running, see log", Toast.LENGTH_SHORT).show();
+                final Context context = getApplicationContext();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        TestDbUtils.benchmarkWriteContention(context);
+                    }
+                }).start();
+
+            } else if (id == R.id.testing_rebuild_daily_stats) {
+                Toast.makeText(this, "Rebuilding statistics", Toast.LENGTH_SHORT).show();
+                final Context context = getApplicationContext();
+                DatabaseWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        DailyStats.rebuild();
+                        SummaryStats.rebuild();
+                        RoameoEvents.send(context, RoameoEvents.ACTION_CALL_DATA_UPDATED);
+                    }
+                });
 
             } else if (id == R.id.testing_start_movement_detection) {
                 //Toast.makeText(this, "Gathering movement", Toast.LENGTH_SHORT).show();
@@ -395,7 +489,7 @@ public class MainActivity extends AppCompatActivity
     }
 
     @Override
-    public void onConfirmDelete(long callSessionId, boolean deleteFromGoogleFit) {
+    public void onConfirmDelete(final long callSessionId, boolean deleteFromGoogleFit) {
         /*
          * Since DetailFragment is called from within here,
          * onConfirmDelete needs to be implemented here as well.
@@ -411,13 +505,24 @@ public class MainActivity extends AppCompatActivity
             }
         }
 
-        CallSession.delete(CallSession.class, callSessionId);
-        /*
-         * Force DetailsFragment reload.
-         * This works, but is probably not the most efficient way. Also, forcing reload
-         * will jump to the first element, that might turn out annoying.
-         */
-        setContentFragment(new DetailsFragment());
+        DatabaseWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                CallSession.deleteSession(callSessionId);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                /*
+                 * Force DetailsFragment reload.
+                 * This works, but is probably not the most efficient way. Also, forcing reload
+                 * will jump to the first element, that might turn out annoying.
+                 */
+                if (!isFinishing()) {
+                    setContentFragment(new DetailsFragment());
+                }
+            }
+        });
     }
 
     @Override
@@ -21,11 +21,20 @@
 
 package fi.craplab.roameo;
 
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.activeandroid.ActiveAndroid;
 import com.activeandroid.app.Application;
 import com.joanzapata.iconify.Iconify;
 import com.joanzapata.iconify.fonts.FontAwesomeModule;
 import com.joanzapata.iconify.fonts.SimpleLineIconsModule;
 
+import fi.craplab.roameo.model.DailyStats;
+import fi.craplab.roameo.model.DatabaseWriter;
+import fi.craplab.roameo.model.MinuteDataMigration;
+import fi.craplab.roameo.ui.SettingsActivity;
 import fi.craplab.roameo.util.DebugLog;
 
 /**
@@ -43,5 +52,43 @@ public class RoameoApplication extends Application {
         DebugLog.d(TAG, "Starting the application");
         super.onCreate();
         Iconify.with(new FontAwesomeModule()).with(new SimpleLineIconsModule())        ;
+        RoameoSettings.init(this);
+
+        /*
+         * Let reads run in parallel to writes, which all go through DatabaseWriter.
+         * Done before any other database access, as it can't be changed during a transaction.
+         */
+        if (!ActiveAndroid.getDatabase().enableWriteAheadLogging()) {
+            DebugLog.w(TAG, "Cannot enable write-ahead logging");
+        }
+
+        MinuteDataMigration.addColumn();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        if (SettingsActivity.compactMinuteStorage(this)
+                && !prefs.getBoolean(SettingsActivity.MINUTE_DATA_PACKED, false)) {
+            // once done, only sessions stored while compact storage was off need packing again
+            DatabaseWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    MinuteDataMigration.packAll();
+                    prefs.edit().putBoolean(SettingsActivity.MINUTE_DATA_PACKED, true).apply();
+                }
+            });
+        }
+
+        final boolean histogramsAdded = DailyStats.addHistogramColumns();
+        final Context context = getApplicationContext();
+        DatabaseWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (histogramsAdded) {
+                    DailyStats.rebuild();
+                } else if (!DailyStats.rebuildIfEmpty()) {
+                    return;
+                }
+                // anything showing statistics until now showed empty days
+                RoameoEvents.send(context, RoameoEvents.ACTION_CALL_DATA_UPDATED);
+            }
+        });
     }
 }
@@ -0,0 +1,126 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import fi.craplab.roameo.ui.SettingsActivity;
+import fi.craplab.roameo.util.DebugLog;
+
+/**
+ * Immutable snapshot of all settings that are read on hot paths.
+ *
+ * Settings are read from the {@link SharedPreferences} once, and the snapshot is only rebuilt
+ * when a preference changes. Reading a setting is therefore just a field access, which matters
+ * for callers like {@link fi.craplab.roameo.sensor.SensorService} or list adapters.
+ *
+ * Use the static helpers in {@link SettingsActivity} to access single settings.
+ */
+public final class RoameoSettings {
+    private static final String TAG = RoameoSettings.class.getSimpleName();
+
+    private static volatile RoameoSettings sSettings = null;
+
+    /*
+     * SharedPreferences only keeps a weak reference to its listeners,
+     * so a strong reference needs to be kept here.
+     */
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    DebugLog.d(TAG, "Preference " + key + " changed, rebuilding settings");
+                    sSettings = new RoameoSettings(sContext, prefs);
+                }
+            };
+
+    private static Context sContext = null;
+
+    /** Notification mode, one of the {@code SettingsActivity.NOTIFICATION_MODE_*} values */
+    public final int notificationMode;
+    /** Min time between two real-time notification updates in seconds */
+    public final int notificationUpdateInterval;
+    public final boolean keepNotifications;
+    public final boolean storePhoneNumber;
+    /** Contact lookup is enabled, regardless of the {@code READ_CONTACTS} permission */
+    public final boolean lookupContacts;
+    public final boolean storeEmptyCounts;
+    /** Store steps per minute packed inside the call session */
+    public final boolean compactMinuteStorage;
+    /** Week start offset in number of days from Monday */
+    public final int weekStartDayOffset;
+    public final boolean googleFitEnabled;
+    /** Step counter max report latency in seconds */
+    public final int sensorBatchLatency;
+
+    private RoameoSettings(Context context, SharedPreferences prefs) {
+        notificationMode = Integer.parseInt(
+                prefs.getString(SettingsActivity.SHOW_NOTIFICATIONS, "0"));
+        notificationUpdateInterval = Integer.parseInt(
+                prefs.getString(SettingsActivity.NOTIFICATION_UPDATE_INTERVAL,
+                        context.getString(R.string.notification_update_interval_default)));
+        keepNotifications = prefs.getBoolean(SettingsActivity.KEEP_NOTIFICATIONS, false);
+        storePhoneNumber = prefs.getBoolean(SettingsActivity.STORE_PHONE_NUMBER, false);
+        lookupContacts = prefs.getBoolean(SettingsActivity.LOOKUP_CALLCONTACT, false);
+        storeEmptyCounts = prefs.getBoolean(SettingsActivity.STORE_EMPTY_COUNTS, false);
+        compactMinuteStorage = prefs.getBoolean(SettingsActivity.COMPACT_MINUTE_STORAGE, false);
+        weekStartDayOffset = Integer.parseInt(
+                prefs.getString(SettingsActivity.WEEK_STARTS_AT_DAY, "0"));
+        googleFitEnabled = prefs.getBoolean(SettingsActivity.CONNECT_GOOGLE_FIT, false);
+        sensorBatchLatency = Integer.parseInt(
+                prefs.getString(SettingsActivity.SENSOR_BATCH_LATENCY,
+                        context.getString(R.string.sensor_batch_latency_default)));
+    }
+
+    /**
+     * Get the current settings snapshot, reading the preferences if that didn't happen yet.
+     *
+     * @param context Context
+     * @return Current settings
+     */
+    public static RoameoSettings get(Context context) {
+        RoameoSettings settings = sSettings;
+        if (settings == null) {
+            settings = init(context);
+        }
+        return settings;
+    }
+
+    /**
+     * Read the preferences and start listening for changes to them.
+     * Called once at application start.
+     *
+     * @param context Context
+     * @return Current settings
+     */
+    static synchronized RoameoSettings init(Context context) {
+        if (sSettings == null) {
+            sContext = context.getApplicationContext();
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(sContext);
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+            sSettings = new RoameoSettings(sContext, prefs);
+        }
+        return sSettings;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.data;
+
+import android.util.SparseArray;
+
+import java.util.List;
+
+import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.CallSessionDao;
+import fi.craplab.roameo.util.DebugLog;
+
+/**
+ * Position based access to all {@link CallSession}s, newest first, without keeping all of
+ * them in memory.
+ *
+ * Sessions are loaded in pages of {@value #PAGE_SIZE} around the most recently accessed
+ * position. A page next to an already loaded one is fetched via keyset pagination on the
+ * session's timestamp and id, so moving through the list costs the same no matter how many
+ * sessions are stored. Pages further away than one page from the accessed position are
+ * released again.
+ *
+ * The session count is determined once at creation, so a new instance is required whenever
+ * sessions are added or deleted.
+ */
+public class PagedSessionList {
+    private static final String TAG = PagedSessionList.class.getSimpleName();
+
+    private static final int PAGE_SIZE = 25;
+    /** Number of pages kept on each side of the currently accessed page */
+    private static final int PAGE_WINDOW = 1;
+
+    private final int mCount;
+    private final SparseArray<List<CallSession>> mPages = new SparseArray<>();
+
+    /**
+     * Create a new {@code PagedSessionList} for the currently stored call sessions.
+     *
+     * Accesses the database for the session count.
+     */
+    public PagedSessionList() {
+        mCount = CallSessionDao.getCount();
+    }
+
+    /**
+     * Get the number of call sessions.
+     *
+     * @return Call session count at the time this list was created
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Get the call session at the given position, loading its page from the database if needed.
+     *
+     * @param position Position, starting at 0 for the newest session
+     * @return Call session, or {@code null} if the position is out of range or the session
+     *         got deleted in the meantime
+     */
+    public CallSession get(int position) {
+        if (position < 0 || position >= mCount) {
+            return null;
+        }
+
+        int pageIndex = position / PAGE_SIZE;
+        List<CallSession> page = mPages.get(pageIndex);
+
+        if (page == null) {
+            page = loadPage(pageIndex);
+            mPages.put(pageIndex, page);
+            releaseDistantPages(pageIndex);
+        }
+
+        int index = position % PAGE_SIZE;
+        return (index < page.size()) ? page.get(index) : null;
+    }
+
+    private List<CallSession> loadPage(int pageIndex) {
+        List<CallSession> newerPage = mPages.get(pageIndex - 1);
+        if (newerPage != null && newerPage.size() == PAGE_SIZE) {
+            return CallSessionDao.getPageOlderThan(newerPage.get(PAGE_SIZE - 1), PAGE_SIZE);
+        }
+
+        List<CallSession> olderPage = mPages.get(pageIndex + 1);
+        if (olderPage != null && !olderPage.isEmpty()) {
+            return CallSessionDao.getPageNewerThan(olderPage.get(0), PAGE_SIZE);
+        }
+
+        DebugLog.d(TAG, "No neighbor for page " + pageIndex + ", loading by offset");
+        return CallSessionDao.getPage(pageIndex * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    private void releaseDistantPages(int pageIndex) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPages.keyAt(i) - pageIndex) > PAGE_WINDOW) {
+                mPages.removeAt(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.data;
+
+import android.database.Cursor;
+
+import com.activeandroid.ActiveAndroid;
+
+/**
+ * Runs the raw SQL queries of the statistics classes within this package.
+ *
+ * Queries go to ActiveAndroid's database, unless tests replace the runner to serve fake rows
+ * and count how many queries it takes to display a week.
+ */
+abstract class QueryRunner {
+    private static QueryRunner sInstance = new QueryRunner() {
+        @Override
+        Cursor rawQuery(String sql, String[] selectionArgs) {
+            return ActiveAndroid.getDatabase().rawQuery(sql, selectionArgs);
+        }
+    };
+
+    static QueryRunner get() {
+        return sInstance;
+    }
+
+    static void set(QueryRunner queryRunner) {
+        sInstance = queryRunner;
+    }
+
+    /**
+     * Run the given query.
+     *
+     * @param sql SQL query
+     * @param selectionArgs Values for the query's {@code ?} placeholders, or {@code null}
+     * @return Cursor over the result, to be closed by the caller
+     */
+    abstract Cursor rawQuery(String sql, String[] selectionArgs);
+}
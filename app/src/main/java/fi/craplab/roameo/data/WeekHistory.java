@@ -0,0 +1,232 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.data;
+
+import android.database.Cursor;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+
+import java.util.Arrays;
+
+import fi.craplab.roameo.model.CallSession;
+
+/**
+ * Per-day call session statistics of the whole history, kept in primitive arrays.
+ *
+ * Each slot holds one day, counted from an origin day, so the slots of a week are found by
+ * its first day's distance to the origin, whichever day the week starts at. Everything is
+ * collected within a single query at once, and later on patched one day at a time whenever
+ * a session is written.
+ *
+ * Unlike {@link WeekStatsCruncher}, the history does not look into single call minutes, so
+ * the {@link WeekStatData} it hands out have no minute step distribution.
+ *
+ * All access is synchronized, as patches are applied on the database writer thread.
+ */
+public class WeekHistory {
+    private static final String QUERY_SQL = "SELECT timestamp, duration, step_count "
+            + "FROM call_session WHERE timestamp >= ? AND timestamp < ? ORDER BY timestamp ASC";
+
+    private static final int COLUMN_TIMESTAMP = 0;
+    private static final int COLUMN_DURATION = 1;
+    private static final int COLUMN_STEP_COUNT = 2;
+
+    private final LocalDate mOrigin;
+
+    private int[] mSessionCounts;
+    private long[] mStepSums;
+    private long[] mDurationSums;
+    private long[] mMaxSteps;
+    private long[] mMaxDurations;
+
+    /**
+     * Create an empty history starting at the given day.
+     *
+     * @param origin First day of the history
+     * @param dayCount Initial number of days, grows on demand
+     */
+    WeekHistory(LocalDate origin, int dayCount) {
+        mOrigin = origin;
+        mSessionCounts = new int[dayCount];
+        mStepSums = new long[dayCount];
+        mDurationSums = new long[dayCount];
+        mMaxSteps = new long[dayCount];
+        mMaxDurations = new long[dayCount];
+    }
+
+    /**
+     * Load the history of all call sessions from the given day on.
+     *
+     * @param origin First day of the history
+     * @return Loaded history
+     */
+    static WeekHistory load(LocalDate origin) {
+        int dayCount = Days.daysBetween(origin, LocalDate.now()).getDays()
+                + DateTimeConstants.DAYS_PER_WEEK;
+        WeekHistory history = new WeekHistory(origin, Math.max(dayCount, 0));
+
+        Cursor cursor = QueryRunner.get().rawQuery(QUERY_SQL, new String[] {
+                String.valueOf(getStartOfDay(origin)),
+                String.valueOf(Long.MAX_VALUE)
+        });
+        try {
+            history.crunch(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        return history;
+    }
+
+    /**
+     * Add all rows of the given cursor, ordered by session timestamp.
+     *
+     * @param cursor Cursor over call sessions, see {@code QUERY_SQL}
+     */
+    synchronized void crunch(Cursor cursor) {
+        int day = -1;
+        long nextDayStart = Long.MIN_VALUE;
+
+        while (cursor.moveToNext()) {
+            long timestamp = cursor.getLong(COLUMN_TIMESTAMP);
+            if (timestamp >= nextDayStart) {
+                // only look up the day once for all of its sessions
+                LocalDate date = new LocalDate(timestamp);
+                day = getDayIndex(date);
+                nextDayStart = getStartOfDay(date.plusDays(1));
+            }
+            add(day, cursor.getLong(COLUMN_STEP_COUNT), cursor.getLong(COLUMN_DURATION));
+        }
+    }
+
+    /**
+     * Get the first day of the history.
+     *
+     * @return History origin
+     */
+    public LocalDate getOrigin() {
+        return mOrigin;
+    }
+
+    /**
+     * Get the statistics of the week starting at the given day.
+     *
+     * @param weekStart First day of the week
+     * @return Week statistics, without minute step distribution
+     */
+    public synchronized WeekStatData getWeekStatData(DateTime weekStart) {
+        WeekStatData data = new WeekStatData(DateTimeConstants.DAYS_PER_WEEK);
+        int firstDay = getDayIndex(weekStart.toLocalDate());
+
+        for (int i = 0; i < DateTimeConstants.DAYS_PER_WEEK; i++) {
+            int day = firstDay + i;
+            if (day < 0 || day >= mSessionCounts.length || mSessionCounts[day] == 0) {
+                continue;
+            }
+
+            data.setDay(i, mSessionCounts[day], mStepSums[day], mDurationSums[day],
+                    mMaxSteps[day], mMaxDurations[day]);
+        }
+
+        return data;
+    }
+
+    /**
+     * Add a newly stored call session to its day.
+     *
+     * @param callSession Call session
+     */
+    public synchronized void addSession(CallSession callSession) {
+        add(getDayIndex(new LocalDate(callSession.timestamp)),
+                callSession.stepCount, callSession.duration);
+    }
+
+    /**
+     * Query the day of the given timestamp again, after one of its sessions was changed
+     * or deleted.
+     *
+     * @param timestamp Timestamp within the day
+     */
+    public synchronized void reloadDay(long timestamp) {
+        LocalDate date = new LocalDate(timestamp);
+        int day = getDayIndex(date);
+        if (day < 0 || day >= mSessionCounts.length) {
+            // nothing stored there, and an added session would have grown the arrays
+            return;
+        }
+
+        mSessionCounts[day] = 0;
+        mStepSums[day] = 0;
+        mDurationSums[day] = 0;
+        mMaxSteps[day] = 0;
+        mMaxDurations[day] = 0;
+
+        Cursor cursor = QueryRunner.get().rawQuery(QUERY_SQL, new String[] {
+                String.valueOf(getStartOfDay(date)),
+                String.valueOf(getStartOfDay(date.plusDays(1)))
+        });
+        try {
+            while (cursor.moveToNext()) {
+                add(day, cursor.getLong(COLUMN_STEP_COUNT), cursor.getLong(COLUMN_DURATION));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void add(int day, long steps, long duration) {
+        if (day < 0) {
+            // before the origin, no week displayed there
+            return;
+        }
+        ensureCapacity(day + 1);
+
+        mSessionCounts[day]++;
+        mStepSums[day] += steps;
+        mDurationSums[day] += duration;
+        mMaxSteps[day] = Math.max(mMaxSteps[day], steps);
+        mMaxDurations[day] = Math.max(mMaxDurations[day], duration);
+    }
+
+    private void ensureCapacity(int dayCount) {
+        if (dayCount > mSessionCounts.length) {
+            int length = Math.max(dayCount, mSessionCounts.length * 2);
+            mSessionCounts = Arrays.copyOf(mSessionCounts, length);
+            mStepSums = Arrays.copyOf(mStepSums, length);
+            mDurationSums = Arrays.copyOf(mDurationSums, length);
+            mMaxSteps = Arrays.copyOf(mMaxSteps, length);
+            mMaxDurations = Arrays.copyOf(mMaxDurations, length);
+        }
+    }
+
+    private int getDayIndex(LocalDate date) {
+        return Days.daysBetween(mOrigin, date).getDays();
+    }
+
+    private static long getStartOfDay(LocalDate date) {
+        return date.toDateTimeAtStartOfDay().getMillis();
+    }
+}
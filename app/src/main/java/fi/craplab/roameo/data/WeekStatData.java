@@ -0,0 +1,163 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.data;
+
+import fi.craplab.roameo.util.Utils;
+
+/**
+ * Statistics of a week's call sessions, created by {@link WeekStatsCruncher}, or by
+ * {@link WeekHistory} and {@link WeekStatsLoader} without minute step distribution.
+ */
+public class WeekStatData {
+    /** Width of each minute step distribution bucket in steps */
+    public static final int DISTRIBUTION_BUCKET_SIZE = 10;
+    /** Number of distribution buckets, the last one holds everything above */
+    public static final int DISTRIBUTION_BUCKETS = 16;
+
+    final Period week = new Period();
+    final Period[] days;
+    final int[] minuteDistribution = new int[DISTRIBUTION_BUCKETS];
+    int maxMinuteSteps = 0;
+
+    WeekStatData(int dayCount) {
+        // package private constructor to prevent instantiations from random places
+        days = new Period[dayCount];
+        for (int day = 0; day < dayCount; day++) {
+            days[day] = new Period();
+        }
+    }
+
+    /**
+     * Statistics of all call sessions within a period, i.e. a single day or the whole week.
+     */
+    public static class Period {
+        int sessionCount = 0;
+        long stepSum = 0;
+        long durationSum = 0;
+        long maxSteps = 0;
+        long maxDuration = 0;
+
+        Period() {
+        }
+
+        void add(long steps, long duration) {
+            sessionCount++;
+            stepSum += steps;
+            durationSum += duration;
+            maxSteps = Math.max(maxSteps, steps);
+            maxDuration = Math.max(maxDuration, duration);
+        }
+
+        public int getSessionCount() {
+            return sessionCount;
+        }
+
+        public long getStepSum() {
+            return stepSum;
+        }
+
+        /** @return Sum of all call durations in millis */
+        public long getDurationSum() {
+            return durationSum;
+        }
+
+        public long getMaxSteps() {
+            return maxSteps;
+        }
+
+        /** @return Longest call duration in millis */
+        public long getMaxDuration() {
+            return maxDuration;
+        }
+
+        public long getAvgSteps() {
+            return (sessionCount > 0) ? stepSum / sessionCount : 0;
+        }
+
+        /** @return Average call duration in millis */
+        public long getAvgDuration() {
+            return (sessionCount > 0) ? durationSum / sessionCount : 0;
+        }
+
+        /** @return Steps per minute over all calls within the period */
+        public float getPace() {
+            float minutes = Utils.millisToMinutes(durationSum);
+            return (minutes > 0) ? stepSum / minutes : 0.0f;
+        }
+    }
+
+    /**
+     * Set a day's totals at once and add them to the week, for data that is already
+     * aggregated per day.
+     *
+     * @param day Day of the week, 0 being the first day
+     */
+    void setDay(int day, int sessionCount, long stepSum, long durationSum, long maxSteps,
+                long maxDuration) {
+        Period period = days[day];
+        period.sessionCount = sessionCount;
+        period.stepSum = stepSum;
+        period.durationSum = durationSum;
+        period.maxSteps = maxSteps;
+        period.maxDuration = maxDuration;
+
+        week.sessionCount += sessionCount;
+        week.stepSum += stepSum;
+        week.durationSum += durationSum;
+        week.maxSteps = Math.max(week.maxSteps, maxSteps);
+        week.maxDuration = Math.max(week.maxDuration, maxDuration);
+    }
+
+    public Period getWeek() {
+        return week;
+    }
+
+    /**
+     * Get the statistics of a single day.
+     *
+     * @param day Day of the week, 0 being the first day
+     * @return Statistics of the given day
+     */
+    public Period getDay(int day) {
+        return days[day];
+    }
+
+    public int getDayCount() {
+        return days.length;
+    }
+
+    /**
+     * Get the number of call minutes by steps walked within them, including minutes without
+     * steps, split into buckets of {@value #DISTRIBUTION_BUCKET_SIZE} steps.
+     *
+     * @return Minute count for each bucket
+     */
+    public int[] getMinuteDistribution() {
+        return minuteDistribution;
+    }
+
+    /** @return Most steps walked within a single call minute */
+    public int getMaxMinuteSteps() {
+        return maxMinuteSteps;
+    }
+}
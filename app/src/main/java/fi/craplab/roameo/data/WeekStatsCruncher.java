@@ -19,12 +19,151 @@
  *
  */
 
+
 package fi.craplab.roameo.data;
 
+import android.database.Cursor;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+
+import java.util.List;
+
+import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.MinuteSteps;
+import fi.craplab.roameo.model.MinuteStepsCodec;
+import fi.craplab.roameo.util.Utils;
+
 /**
+ * Data Cruncher helper class for all {@link CallSession}s within a week.
  *
+ * Collects per-day and whole week statistics along with the distribution of steps per call
+ * minute into a {@link WeekStatData} object, within a single pass over one cursor that joins
+ * the week's sessions with their {@link MinuteSteps}. Sessions with their minutes packed into
+ * {@link CallSession#minuteData} come with a single row and are decoded on the fly.
  */
-@SuppressWarnings("All")
 public class WeekStatsCruncher {
-    // TODO collect statistics for the whole week ..and figure out what to actually do with it then
+    private static final String QUERY_SQL = "SELECT s.Id, s.timestamp, s.duration, "
+            + "s.step_count, s.minute_data, m.steps FROM call_session s "
+            + "LEFT JOIN minute_steps m ON m.call_session = s.Id "
+            + "WHERE s.timestamp >= ? AND s.timestamp < ? "
+            + "ORDER BY s.timestamp ASC, s.Id ASC";
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_TIMESTAMP = 1;
+    private static final int COLUMN_DURATION = 2;
+    private static final int COLUMN_STEP_COUNT = 3;
+    private static final int COLUMN_MINUTE_DATA = 4;
+    private static final int COLUMN_MINUTE_STEPS = 5;
+
+    /** Midnight of each day of the week, plus the following week's first day */
+    private final long[] mDayStarts = new long[DateTimeConstants.DAYS_PER_WEEK + 1];
+    private WeekStatData mWeekStatData;
+
+    /**
+     * Create a new {@code WeekStatsCruncher} for the week starting at the given time.
+     *
+     * @param weekStart First day of the week, any time of day
+     */
+    public WeekStatsCruncher(DateTime weekStart) {
+        DateTime day = weekStart.withTimeAtStartOfDay();
+        for (int i = 0; i < mDayStarts.length; i++) {
+            mDayStarts[i] = day.plusDays(i).withTimeAtStartOfDay().getMillis();
+        }
+    }
+
+    /**
+     * Get the week's statistics, querying the database on first call.
+     *
+     * @return Week statistics
+     */
+    public WeekStatData getWeekStatData() {
+        if (mWeekStatData == null) {
+            Cursor cursor = QueryRunner.get().rawQuery(QUERY_SQL, new String[] {
+                    String.valueOf(mDayStarts[0]),
+                    String.valueOf(mDayStarts[DateTimeConstants.DAYS_PER_WEEK])
+            });
+            try {
+                mWeekStatData = crunch(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return mWeekStatData;
+    }
+
+    /**
+     * Crunch all rows of the given cursor, ordered by session timestamp and id, with one row
+     * per stored minute of each session, or a single row if it has no minute rows.
+     *
+     * @param cursor Cursor over the week's sessions and minutes, see {@code QUERY_SQL}
+     * @return Week statistics
+     */
+    WeekStatData crunch(Cursor cursor) {
+        WeekStatData data = new WeekStatData(DateTimeConstants.DAYS_PER_WEEK);
+        int day = 0;
+        long sessionId = -1;
+        long sessionMinutes = 0;
+        int stepMinutes = 0;
+
+        while (cursor.moveToNext()) {
+            long id = cursor.getLong(COLUMN_ID);
+
+            if (id != sessionId) {
+                addIdleMinutes(data, sessionMinutes, stepMinutes);
+                sessionId = id;
+                stepMinutes = 0;
+
+                long timestamp = cursor.getLong(COLUMN_TIMESTAMP);
+                long duration = cursor.getLong(COLUMN_DURATION);
+                long steps = cursor.getLong(COLUMN_STEP_COUNT);
+
+                while (day < DateTimeConstants.DAYS_PER_WEEK - 1
+                        && timestamp >= mDayStarts[day + 1]) {
+                    day++;
+                }
+                data.days[day].add(steps, duration);
+                data.week.add(steps, duration);
+
+                // same as SessionCruncher, the last started minute counts as well
+                sessionMinutes = (long) Utils.millisToMinutes(duration) + 1;
+
+                if (!cursor.isNull(COLUMN_MINUTE_DATA)) {
+                    List<MinuteSteps> minuteStepsList =
+                            MinuteStepsCodec.decode(null, cursor.getBlob(COLUMN_MINUTE_DATA));
+                    for (MinuteSteps minuteSteps : minuteStepsList) {
+                        addMinute(data, minuteSteps.steps);
+                    }
+                    stepMinutes = minuteStepsList.size();
+                }
+            }
+
+            if (!cursor.isNull(COLUMN_MINUTE_STEPS)) {
+                addMinute(data, cursor.getInt(COLUMN_MINUTE_STEPS));
+                stepMinutes++;
+            }
+        }
+        addIdleMinutes(data, sessionMinutes, stepMinutes);
+
+        return data;
+    }
+
+    private static void addMinute(WeekStatData data, int steps) {
+        // guard the array index against broken rows with negative steps
+        int bucket = Math.max(0, Math.min(steps / WeekStatData.DISTRIBUTION_BUCKET_SIZE,
+                WeekStatData.DISTRIBUTION_BUCKETS - 1));
+        data.minuteDistribution[bucket]++;
+        data.maxMinuteSteps = Math.max(data.maxMinuteSteps, steps);
+    }
+
+    /**
+     * Minutes without steps are not stored, so add whatever is missing from the session's
+     * duration to the first bucket.
+     */
+    private static void addIdleMinutes(WeekStatData data, long sessionMinutes, int stepMinutes) {
+        if (sessionMinutes > stepMinutes) {
+            data.minuteDistribution[0] += sessionMinutes - stepMinutes;
+        }
+    }
 }
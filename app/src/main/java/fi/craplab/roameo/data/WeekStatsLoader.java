@@ -0,0 +1,310 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.data;
+
+import android.os.AsyncTask;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.DailyStats;
+import fi.craplab.roameo.model.SessionListener;
+import fi.craplab.roameo.model.SessionListeners;
+import fi.craplab.roameo.util.DebugLog;
+
+/**
+ * Loads the {@link WeekHistory} off the main thread and hands out {@link WeekStatData} from it.
+ *
+ * The history is loaded once when the statistics screen opens, and outlives the fragments
+ * displaying it, so recreated statistics pages and the statistics dialog never query their
+ * week again. It covers every day since its origin, whichever day the week starts at, so
+ * changing the week start setting doesn't require a reload either.
+ *
+ * Loading and callbacks are meant for the main thread. Written sessions patch their own day
+ * through a {@link SessionListener}.
+ */
+public final class WeekStatsLoader {
+    private static final String TAG = WeekStatsLoader.class.getSimpleName();
+
+    private static WeekHistory sHistory;
+    private static LoadTask sLoadTask;
+    private static final List<PendingLoad> sPendingLoads = new ArrayList<>();
+
+    /**
+     * Incremented with each session write. A history load that started before that might
+     * have missed it and is started over.
+     */
+    private static int sGeneration;
+
+    static {
+        SessionListeners.register(new SessionListener() {
+            @Override
+            public void onSessionSaved(CallSession callSession, boolean inserted) {
+                if (inserted) {
+                    addSession(callSession);
+                } else {
+                    invalidate(callSession.timestamp);
+                }
+            }
+
+            @Override
+            public void onSessionDeleted(CallSession callSession, long id) {
+                invalidate(callSession.timestamp);
+            }
+
+            @Override
+            public void onSessionsChanged() {
+                clear();
+            }
+        });
+    }
+
+    /**
+     * Callback for a finished week load, called on the main thread.
+     */
+    public interface Callback {
+        void onWeekStatsLoaded(DateTime weekStart, WeekStatData weekStatData);
+    }
+
+    private static class PendingLoad {
+        final DateTime weekStart;
+        final Callback callback;
+
+        PendingLoad(DateTime weekStart, Callback callback) {
+            this.weekStart = weekStart;
+            this.callback = callback;
+        }
+    }
+
+    private WeekStatsLoader() {
+        /* static access only */
+    }
+
+    /**
+     * Start loading the history in the background, unless it's loaded already and reaches
+     * back to the given week.
+     *
+     * @param firstWeekStart First day of the earliest week that will be displayed
+     */
+    public static void open(DateTime firstWeekStart) {
+        // leave room for week start settings that put the first day before the given one
+        LocalDate origin = firstWeekStart.toLocalDate().minusWeeks(1);
+        WeekHistory history = getHistory();
+
+        if (history != null && !history.getOrigin().isAfter(origin)) {
+            return;
+        }
+        if (sLoadTask == null || sLoadTask.mOrigin.isAfter(origin)) {
+            startTask(origin);
+        }
+    }
+
+    /**
+     * Get a week's statistics if the history is loaded.
+     *
+     * @param weekStart First day of the week at midnight
+     * @return Week statistics, or {@code null} if the history needs to be loaded first
+     */
+    public static WeekStatData getCached(DateTime weekStart) {
+        WeekHistory history = getHistory();
+        if (history != null && !history.getOrigin().isAfter(weekStart.toLocalDate())) {
+            return history.getWeekStatData(weekStart);
+        }
+        return null;
+    }
+
+    /**
+     * Get a week's statistics, from the history if possible, or else by querying the week's
+     * {@link DailyStats} with a single query right away, both without minute step distribution.
+     *
+     * @param weekStart First day of the week at midnight
+     * @return Week statistics
+     */
+    public static WeekStatData get(DateTime weekStart) {
+        WeekStatData weekStatData = getCached(weekStart);
+        if (weekStatData == null) {
+            weekStatData = fromDailyStats(
+                    DailyStats.getForDays(weekStart.getMillis(), DateTimeConstants.DAYS_PER_WEEK));
+        }
+        return weekStatData;
+    }
+
+    /**
+     * Collect the week statistics from the rollup of each of its days.
+     *
+     * @param days Statistics of each day of the week, ordered by day
+     * @return Week statistics
+     */
+    static WeekStatData fromDailyStats(DailyStats[] days) {
+        WeekStatData data = new WeekStatData(days.length);
+        for (int i = 0; i < days.length; i++) {
+            data.setDay(i, days[i].sessionCount, days[i].stepSum, days[i].durationSum,
+                    days[i].maxSteps, days[i].maxDuration);
+        }
+        return data;
+    }
+
+    /**
+     * Get a week's statistics once the history is loaded. If it is loaded already, the
+     * callback is called before this method returns.
+     *
+     * @param weekStart First day of the week at midnight
+     * @param callback Callback to receive the week statistics
+     */
+    public static void load(DateTime weekStart, Callback callback) {
+        WeekStatData weekStatData = getCached(weekStart);
+        if (weekStatData != null) {
+            callback.onWeekStatsLoaded(weekStart, weekStatData);
+            return;
+        }
+
+        sPendingLoads.add(new PendingLoad(weekStart, callback));
+        open(weekStart);
+    }
+
+    /**
+     * Remove a callback given to {@link #load(DateTime, Callback)}, e.g. when its fragment
+     * is destroyed before the history has finished loading.
+     *
+     * @param callback Callback to remove
+     */
+    public static void removeCallback(Callback callback) {
+        for (int i = sPendingLoads.size() - 1; i >= 0; i--) {
+            if (sPendingLoads.get(i).callback == callback) {
+                sPendingLoads.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Add a newly stored call session to the history.
+     *
+     * @param callSession Call session
+     */
+    private static void addSession(CallSession callSession) {
+        WeekHistory history = nextGeneration();
+        if (history != null) {
+            history.addSession(callSession);
+        }
+    }
+
+    /**
+     * Update the history's day containing the given timestamp, after a session within it
+     * was changed or deleted.
+     *
+     * @param timestamp Timestamp of the written call session
+     */
+    private static void invalidate(long timestamp) {
+        WeekHistory history = nextGeneration();
+        if (history != null) {
+            history.reloadDay(timestamp);
+        }
+    }
+
+    /**
+     * Drop the history, e.g. after bulk changes.
+     */
+    private static synchronized void clear() {
+        sGeneration++;
+        sHistory = null;
+    }
+
+    private static synchronized WeekHistory getHistory() {
+        return sHistory;
+    }
+
+    private static synchronized WeekHistory nextGeneration() {
+        sGeneration++;
+        return sHistory;
+    }
+
+    private static synchronized int getGeneration() {
+        return sGeneration;
+    }
+
+    /**
+     * Publish a loaded history, unless a session was written while loading it.
+     *
+     * @return {@code true} if the history was published
+     */
+    private static synchronized boolean publish(WeekHistory history, int generation) {
+        if (generation != sGeneration) {
+            return false;
+        }
+        sHistory = history;
+        return true;
+    }
+
+    private static void startTask(LocalDate origin) {
+        DebugLog.d(TAG, "Loading history from " + origin);
+        sLoadTask = new LoadTask(origin);
+        sLoadTask.execute();
+    }
+
+    private static class LoadTask extends AsyncTask<Void, Void, WeekHistory> {
+        private final LocalDate mOrigin;
+        private final int mGeneration;
+
+        LoadTask(LocalDate origin) {
+            mOrigin = origin;
+            mGeneration = getGeneration();
+        }
+
+        @Override
+        protected WeekHistory doInBackground(Void... params) {
+            return WeekHistory.load(mOrigin);
+        }
+
+        @Override
+        protected void onPostExecute(WeekHistory history) {
+            if (sLoadTask != this) {
+                // superseded by a task reaching further back
+                return;
+            }
+            sLoadTask = null;
+
+            if (!publish(history, mGeneration)) {
+                DebugLog.d(TAG, "Session written while loading history, starting over");
+                startTask(mOrigin);
+                return;
+            }
+
+            List<PendingLoad> pendingLoads = new ArrayList<>(sPendingLoads);
+            sPendingLoads.clear();
+            for (PendingLoad pendingLoad : pendingLoads) {
+                WeekStatData weekStatData = getCached(pendingLoad.weekStart);
+                if (weekStatData != null) {
+                    pendingLoad.callback.onWeekStatsLoaded(pendingLoad.weekStart, weekStatData);
+                } else {
+                    // week before the origin, wait for the history to reach back further
+                    load(pendingLoad.weekStart, pendingLoad.callback);
+                }
+            }
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package fi.craplab.roameo.model;
 
 import android.database.Cursor;
+import android.database.sqlite.SQLiteStatement;
 
 import com.activeandroid.ActiveAndroid;
 import com.activeandroid.Model;
@@ -40,6 +41,8 @@ import fi.craplab.roameo.util.Utils;
  */
 @Table(name="call_session")
 public class CallSession extends Model {
+    private static final int DAYS_PER_WEEK = 7;
+
     /** Call session timestamp in millis */
     @Column(name="timestamp")
     @Expose
@@ -65,10 +68,20 @@ public class CallSession extends Model {
     @Expose
     public long stepCount;
 
-    /** Google Fit identifier set by {@link GoogleFitUploadTask} */
+    /**
+     * Google Fit identifier stored by {@link GoogleFitUploadTask}, see
+     * {@link #saveGoogleFitIdentifier(CallSession, String)}
+     */
     @Column(name="google_fit_id")
     public String googleFitIdentifier;
 
+    /**
+     * Steps per minute packed by {@link MinuteStepsCodec}, if the session was stored with
+     * compact minute storage enabled. {@code null} if stored as {@link MinuteSteps} rows.
+     */
+    @Column(name="minute_data")
+    public byte[] minuteData;
+
     @Override
     public String toString() {
         return "CallSession{" +
@@ -94,26 +107,98 @@ public class CallSession extends Model {
     /**
      * Get {@code CallSession}'s list of stored {@link MinuteSteps}.
      *
+     * Served from {@link SessionCache} if possible, the returned list is unmodifiable.
+     *
      * @return CallSession's {@link MinuteSteps} list
      */
     public List<MinuteSteps> getMinuteSteps() {
-        return getMany(MinuteSteps.class, "call_session");
+        return SessionCache.getMinuteSteps(this);
     }
 
+    /**
+     * Load {@code CallSession}'s list of stored {@link MinuteSteps}, bypassing the cache.
+     *
+     * If the minutes are packed inside the session itself, they are decoded without any
+     * further database access.
+     *
+     * @return CallSession's {@link MinuteSteps} list
+     */
+    List<MinuteSteps> loadMinuteSteps() {
+        if (minuteData != null) {
+            return MinuteStepsCodec.decode(this, minuteData);
+        }
 
-    private static List<CallSession> getSessions(boolean ascending) {
-        return new Select()
-                .from(CallSession.class)
-                .orderBy("timestamp " + ((ascending) ? "ASC" : "DESC"))
-                .execute();
+        List<MinuteSteps> minuteStepsList = MinuteStepsDao.getForSession(this);
+        if (minuteStepsList.isEmpty() && getId() != null) {
+            // loaded before MinuteDataMigration packed the rows in the background
+            byte[] packed = MinuteStepsDao.getPackedForSession(this);
+            if (packed != null) {
+                return MinuteStepsCodec.decode(this, packed);
+            }
+        }
+        return minuteStepsList;
+    }
+
+
+    /**
+     * Delete a call session along with its minutes, and update its day's {@link DailyStats}
+     * and the {@link SummaryStats} within the same transaction. {@link SessionListeners} are
+     * notified once it's committed.
+     *
+     * @param id Call session id
+     */
+    public static void deleteSession(long id) {
+        CallSession callSession = getById(id);
+        if (callSession == null) {
+            return;
+        }
+
+        ActiveAndroid.beginTransaction();
+        try {
+            callSession.delete();
+            DailyStats.recomputeDay(callSession.timestamp);
+            SummaryStats.removeSession(callSession, id);
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+
+        SessionListeners.notifyDeleted(callSession, id);
+    }
+
+    /**
+     * Store the Google Fit identifier of an uploaded call session.
+     *
+     * Only the database row is updated, the given object is left as it is, since it may be
+     * shared through {@link SessionCache} and read on the main thread meanwhile. Once
+     * {@link SessionListeners} are notified, {@link #getById(long)} returns a fresh object
+     * with the identifier set.
+     *
+     * Accesses the database, so call it on the {@link DatabaseWriter} thread.
+     *
+     * @param callSession Uploaded call session
+     * @param identifier Google Fit session identifier
+     */
+    public static void saveGoogleFitIdentifier(CallSession callSession, String identifier) {
+        SQLiteStatement statement = ActiveAndroid.getDatabase().compileStatement(
+                "UPDATE call_session SET google_fit_id = ? WHERE Id = ?");
+        try {
+            statement.bindString(1, identifier);
+            statement.bindLong(2, callSession.getId());
+            statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+
+        SessionListeners.notifySaved(callSession, false);
     }
 
     public static List<CallSession> getSessions() {
-        return getSessions(true);
+        return CallSessionDao.getAll(true);
     }
 
     public static List<CallSession> getSessionsReverse() {
-        return getSessions(false);
+        return CallSessionDao.getAll(false);
     }
 
     public static List<CallSession> getSessionsForDay(long timestamp) {
@@ -125,16 +210,17 @@ public class CallSession extends Model {
     }
 
     public static List<CallSession> getSessions(long startTimestamp, long endTimestamp) {
-        return new Select()
-                .from(CallSession.class)
-                .where("timestamp >= ?", startTimestamp)
-                .and("timestamp <= ?", endTimestamp)
-                .orderBy("timestamp ASC")
-                .execute();
+        return CallSessionDao.getRange(startTimestamp, endTimestamp);
     }
 
+    /**
+     * Get a call session by its id, served from {@link SessionCache} if possible.
+     *
+     * @param id Call session id
+     * @return Call session, or {@code null} if there is no session with the given id
+     */
     public static CallSession getById(long id) {
-        return new Select().from(CallSession.class).where("ID = ?", id).executeSingle();
+        return SessionCache.getSession(id);
     }
 
     public static CallSession getFirstTimestamp() {
@@ -152,44 +238,78 @@ public class CallSession extends Model {
         return getSingleValueFromCursor(c);
     }
 
-    private static long getAggregateOfColumn(String function, String column,
-                                             long startTimestamp, long duration) {
+    /**
+     * Get an aggregate of a {@link DailyStats} column over the given number of days.
+     */
+    private static long getAggregateOfDailyStats(String function, String column,
+                                                 long startTimestamp, int days) {
+        int firstDay = DailyStats.getDay(startTimestamp);
         Cursor c = ActiveAndroid.getDatabase().rawQuery(
-                "SELECT " + function + "(" + column + ") FROM call_session "+
-                        "WHERE timestamp >= ? AND timestamp < ?",
+                "SELECT " + function + "(" + column + ") FROM daily_stats "+
+                        "WHERE day >= ? AND day < ?",
                 new String[] {
-                        String.valueOf(startTimestamp),
-                        String.valueOf(startTimestamp + duration)
+                        String.valueOf(firstDay),
+                        String.valueOf(firstDay + days)
                 }
         );
 
         return getSingleValueFromCursor(c);
     }
 
-    private static int getSingleValueFromCursor(Cursor c) {
-        int value = 0;
+    private static long getSingleValueFromCursor(Cursor c) {
+        long value = 0;
         if (c.moveToFirst()) {
-            value = c.getInt(0);
+            value = c.getLong(0);
         }
         c.close();
 
         return value;
     }
 
-    private static long getSumOfColumn(String column) {
-        return getAggregateOfColumn("SUM", column);
+    private static final String AGGREGATE_SQL = "SELECT COUNT(*), "
+            + "IFNULL(SUM(step_count), 0), IFNULL(SUM(duration), 0), "
+            + "IFNULL(MAX(step_count), 0), IFNULL(MAX(duration), 0) FROM call_session";
+
+    /**
+     * Get count, sums and max values of steps and durations of all sessions ever recorded,
+     * calculated within a single query.
+     *
+     * @return Aggregate over all sessions
+     */
+    public static SessionAggregate getAggregate() {
+        return getAggregate(AGGREGATE_SQL, null);
     }
 
-    private static long getSumOfColumn(String column, long startTimestamp, long duration) {
-        return getAggregateOfColumn("SUM", column, startTimestamp, duration);
+    /**
+     * Get count, sums and max values of steps and durations of all sessions within the given
+     * time range, calculated within a single query.
+     *
+     * @param startTimestamp Range start in millis, inclusive
+     * @param endTimestamp Range end in millis, exclusive
+     * @return Aggregate over the sessions within the range
+     */
+    public static SessionAggregate getAggregate(long startTimestamp, long endTimestamp) {
+        return getAggregate(AGGREGATE_SQL + " WHERE timestamp >= ? AND timestamp < ?",
+                new String[] {String.valueOf(startTimestamp), String.valueOf(endTimestamp)});
     }
 
-    private static long getMaxOfColumn(String column) {
-        return getAggregateOfColumn("MAX", column);
+    private static SessionAggregate getAggregate(String sql, String[] args) {
+        Cursor c = ActiveAndroid.getDatabase().rawQuery(sql, args);
+        try {
+            // aggregate query without GROUP BY always returns exactly one row
+            c.moveToFirst();
+            return new SessionAggregate(c);
+        } finally {
+            c.close();
+        }
     }
 
-    private static long getMaxOfColumn(String column, long startTimestamp, long duration) {
-        return getAggregateOfColumn("MAX", column, startTimestamp, duration);
+    private static long getSumOfColumn(String column) {
+        return getAggregateOfColumn("SUM", column);
+    }
+
+    private static long getMaxOfColumn(String column) {
+        return getAggregateOfColumn("MAX", column);
     }
 
     /**
@@ -208,7 +328,8 @@ public class CallSession extends Model {
      * @return Total number of steps recorded for that day
      */
     public static long getStepsForDay(long timestamp) {
-        return getSumOfColumn("step_count", timestamp, Utils.MILLIS_PER_DAY);
+        DailyStats dailyStats = DailyStats.getForDay(timestamp);
+        return (dailyStats != null) ? dailyStats.stepSum : 0;
     }
 
     /**
@@ -218,7 +339,7 @@ public class CallSession extends Model {
      * @return Total number of steps recorded for that week
      */
     public static long getStepsForWeek(long timestamp) {
-        return getSumOfColumn("step_count", timestamp, Utils.MILLIS_PER_WEEK);
+        return getAggregateOfDailyStats("SUM", "step_sum", timestamp, DAYS_PER_WEEK);
     }
 
     /**
@@ -237,7 +358,8 @@ public class CallSession extends Model {
      * @return Total number of steps recorded for that day
      */
     public static long getDurationsForDay(long timestamp) {
-        return getSumOfColumn("duration", timestamp, Utils.MILLIS_PER_DAY);
+        DailyStats dailyStats = DailyStats.getForDay(timestamp);
+        return (dailyStats != null) ? dailyStats.durationSum : 0;
     }
 
     /**
@@ -247,7 +369,7 @@ public class CallSession extends Model {
      * @return Total number of steps recorded for that week
      */
     public static long getDurationsForWeek(long timestamp) {
-        return getSumOfColumn("duration", timestamp, Utils.MILLIS_PER_WEEK);
+        return getAggregateOfDailyStats("SUM", "duration_sum", timestamp, DAYS_PER_WEEK);
     }
 
     public static long getMaxSteps() {
@@ -255,7 +377,7 @@ public class CallSession extends Model {
     }
 
     public static long getMaxStepsForWeek(long timestamp) {
-        return getMaxOfColumn("step_count", timestamp, Utils.MILLIS_PER_WEEK);
+        return getAggregateOfDailyStats("MAX", "max_steps", timestamp, DAYS_PER_WEEK);
     }
 
     public static long getMaxDuration() {
@@ -263,7 +385,7 @@ public class CallSession extends Model {
     }
 
     public static long getMaxDurationForWeek(long timestamp) {
-        return getMaxOfColumn("duration", timestamp, Utils.MILLIS_PER_WEEK);
+        return getAggregateOfDailyStats("MAX", "max_duration", timestamp, DAYS_PER_WEEK);
     }
 
 }
@@ -0,0 +1,234 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import android.database.Cursor;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Model;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read access to {@link CallSession} without going through ActiveAndroid.
+ *
+ * ActiveAndroid's {@code Select} instantiates each row via reflection, looks up every column
+ * by name and adds each entity to its identity cache. Here, rows are mapped by fixed column
+ * index instead, using constant SQL strings so the statements are reused from SQLite's
+ * prepared statement cache. {@link CallSession} itself stays the schema definition, and the
+ * returned objects can be saved and deleted as usual.
+ */
+public final class CallSessionDao {
+    private static final String COLUMNS = "SELECT Id, timestamp, phone_number, incoming, "
+            + "duration, step_count, google_fit_id, minute_data FROM call_session";
+
+    private static final String ALL_ASC_SQL = COLUMNS + " ORDER BY timestamp ASC";
+    private static final String ALL_DESC_SQL = COLUMNS + " ORDER BY timestamp DESC";
+    private static final String RANGE_SQL = COLUMNS
+            + " WHERE timestamp >= ? AND timestamp <= ? ORDER BY timestamp ASC";
+    private static final String BY_ID_SQL = COLUMNS + " WHERE Id = ?";
+
+    /*
+     * Paging queries for newest first order, using (timestamp, Id) as key so sessions with
+     * identical timestamps still have a well-defined order. Written out instead of as row value
+     * comparison, which the SQLite versions of older Android releases don't support. The plain
+     * timestamp condition comes first so SQLite seeks into the timestamp index rather than
+     * scanning it from the start.
+     */
+    private static final String NEWEST_ORDER = " ORDER BY timestamp DESC, Id DESC LIMIT ?";
+    private static final String PAGE_OFFSET_SQL = COLUMNS + NEWEST_ORDER + " OFFSET ?";
+    private static final String PAGE_OLDER_SQL = COLUMNS
+            + " WHERE timestamp <= ? AND (timestamp < ? OR Id < ?)" + NEWEST_ORDER;
+    private static final String PAGE_NEWER_SQL = COLUMNS
+            + " WHERE timestamp >= ? AND (timestamp > ? OR Id > ?)"
+            + " ORDER BY timestamp ASC, Id ASC LIMIT ?";
+    private static final String COUNT_SQL = "SELECT COUNT(*) FROM call_session";
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_TIMESTAMP = 1;
+    private static final int COLUMN_PHONE_NUMBER = 2;
+    private static final int COLUMN_INCOMING = 3;
+    private static final int COLUMN_DURATION = 4;
+    private static final int COLUMN_STEP_COUNT = 5;
+    private static final int COLUMN_GOOGLE_FIT_ID = 6;
+    private static final int COLUMN_MINUTE_DATA = 7;
+
+    /** {@link Model}'s private id field, looked up once */
+    private static Field sIdField;
+
+    private CallSessionDao() {
+        /* static access only */
+    }
+
+    /**
+     * Get all call sessions ordered by their timestamp.
+     *
+     * @param ascending {@code true} for oldest first, {@code false} for newest first
+     * @return List of all call sessions
+     */
+    public static List<CallSession> getAll(boolean ascending) {
+        return query(ascending ? ALL_ASC_SQL : ALL_DESC_SQL, null);
+    }
+
+    /**
+     * Get all call sessions within the given time range, oldest first.
+     *
+     * @param startTimestamp Range start in millis, inclusive
+     * @param endTimestamp Range end in millis, inclusive
+     * @return List of call sessions within the range
+     */
+    public static List<CallSession> getRange(long startTimestamp, long endTimestamp) {
+        return query(RANGE_SQL,
+                new String[] {String.valueOf(startTimestamp), String.valueOf(endTimestamp)});
+    }
+
+    /**
+     * Get a single call session.
+     *
+     * @param id Call session id
+     * @return Call session, or {@code null} if there is no session with the given id
+     */
+    public static CallSession getById(long id) {
+        Cursor cursor = ActiveAndroid.getDatabase().rawQuery(BY_ID_SQL,
+                new String[] {String.valueOf(id)});
+        try {
+            return cursor.moveToFirst() ? fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get the number of stored call sessions.
+     *
+     * @return Call session count
+     */
+    public static int getCount() {
+        Cursor cursor = ActiveAndroid.getDatabase().rawQuery(COUNT_SQL, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get a page of call sessions, newest first, by position.
+     *
+     * SQLite still has to step over all skipped rows, so this is meant for jumping to a position
+     * only, use {@link #getPageOlderThan(CallSession, int)} and
+     * {@link #getPageNewerThan(CallSession, int)} to move from an already loaded page.
+     *
+     * @param offset Number of newest sessions to skip
+     * @param limit Maximum number of sessions to return
+     * @return List of call sessions, newest first
+     */
+    public static List<CallSession> getPage(int offset, int limit) {
+        return query(PAGE_OFFSET_SQL,
+                new String[] {String.valueOf(limit), String.valueOf(offset)});
+    }
+
+    /**
+     * Get the page of call sessions directly following the given session in newest first order.
+     *
+     * @param callSession Last session of the current page
+     * @param limit Maximum number of sessions to return
+     * @return List of older call sessions, newest first
+     */
+    public static List<CallSession> getPageOlderThan(CallSession callSession, int limit) {
+        return query(PAGE_OLDER_SQL, getKeyArgs(callSession, limit));
+    }
+
+    /**
+     * Get the page of call sessions directly preceding the given session in newest first order.
+     *
+     * @param callSession First session of the current page
+     * @param limit Maximum number of sessions to return
+     * @return List of newer call sessions, newest first
+     */
+    public static List<CallSession> getPageNewerThan(CallSession callSession, int limit) {
+        List<CallSession> sessions = query(PAGE_NEWER_SQL, getKeyArgs(callSession, limit));
+        Collections.reverse(sessions);
+        return sessions;
+    }
+
+    private static String[] getKeyArgs(CallSession callSession, int limit) {
+        String timestamp = String.valueOf(callSession.timestamp);
+        return new String[] {
+                timestamp, timestamp, String.valueOf(callSession.getId()), String.valueOf(limit)
+        };
+    }
+
+    private static List<CallSession> query(String sql, String[] args) {
+        Cursor cursor = ActiveAndroid.getDatabase().rawQuery(sql, args);
+        try {
+            List<CallSession> sessions = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                sessions.add(fromCursor(cursor));
+            }
+            return sessions;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static CallSession fromCursor(Cursor cursor) {
+        CallSession callSession = new CallSession();
+        setId(callSession, cursor.getLong(COLUMN_ID));
+        callSession.timestamp = cursor.getLong(COLUMN_TIMESTAMP);
+        callSession.phoneNumber = cursor.getString(COLUMN_PHONE_NUMBER);
+        callSession.isIncoming = cursor.getInt(COLUMN_INCOMING) != 0;
+        callSession.duration = cursor.getLong(COLUMN_DURATION);
+        callSession.stepCount = cursor.getLong(COLUMN_STEP_COUNT);
+        callSession.googleFitIdentifier = cursor.getString(COLUMN_GOOGLE_FIT_ID);
+        callSession.minuteData = cursor.isNull(COLUMN_MINUTE_DATA)
+                ? null : cursor.getBlob(COLUMN_MINUTE_DATA);
+        return callSession;
+    }
+
+    /**
+     * Set the database id of a model object created outside of ActiveAndroid, so that
+     * {@link Model#save()}, {@link Model#delete()} and relations work on it as usual.
+     *
+     * ActiveAndroid offers no setter for it, so the field is set via reflection, which is
+     * still a lot cheaper than having ActiveAndroid set every single field that way.
+     *
+     * @param model Model object
+     * @param id Database id
+     */
+    static void setId(Model model, long id) {
+        try {
+            if (sIdField == null) {
+                Field field = Model.class.getDeclaredField("mId");
+                field.setAccessible(true);
+                sIdField = field;
+            }
+            sIdField.set(model, id);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Cannot set model id", e);
+        }
+    }
+}
@@ -0,0 +1,514 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Model;
+import com.activeandroid.annotation.Column;
+import com.activeandroid.annotation.Table;
+import com.activeandroid.query.Select;
+
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+
+import java.util.List;
+import java.util.Locale;
+
+import fi.craplab.roameo.util.DebugLog;
+import fi.craplab.roameo.util.Utils;
+
+/**
+ * Daily statistics database model.
+ *
+ * Rollup of all {@link CallSession}s within one local calendar day, so day and week statistics
+ * can be read from a handful of precomputed rows instead of aggregating over all sessions.
+ * Along with sums and max values, each day holds {@link StepHistogram}s of the steps per call
+ * minute and of the sessions' paces, so percentiles over any number of days come from merging
+ * a handful of small histograms.
+ *
+ * Kept up to date whenever a session is inserted via
+ * {@link MinuteSteps#saveAll(CallSession, int[], int[], boolean)} or deleted via
+ * {@link CallSession#deleteSession(long)}, and can be rebuilt from scratch with
+ * {@link #rebuild()}.
+ */
+@Table(name="daily_stats")
+public class DailyStats extends Model {
+    private static final String TAG = DailyStats.class.getSimpleName();
+    private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+
+    /**
+     * Local calendar date of the day, as number of days since 1970-01-01. Unlike the day's
+     * midnight in millis, this stays the same when the time zone changes.
+     */
+    @Column(name="day", unique = true)
+    public int day;
+
+    @Column(name="session_count")
+    public int sessionCount;
+
+    @Column(name="step_sum")
+    public long stepSum;
+
+    /** Sum of all call durations in millis */
+    @Column(name="duration_sum")
+    public long durationSum;
+
+    @Column(name="max_steps")
+    public long maxSteps;
+
+    /** Longest call duration in millis */
+    @Column(name="max_duration")
+    public long maxDuration;
+
+    /** Packed {@link StepHistogram} of steps per call minute, including minutes without steps */
+    @Column(name="minute_histogram")
+    public byte[] minuteHistogram;
+
+    /** Packed {@link StepHistogram} of each session's pace in steps per minute */
+    @Column(name="pace_histogram")
+    public byte[] paceHistogram;
+
+    public DailyStats() {
+        /* default constructor for ActiveAndroid */
+    }
+
+    @Override
+    public String toString() {
+        return "DailyStats{" +
+                "day=" + day +
+                ", sessionCount=" + sessionCount +
+                ", stepSum=" + stepSum +
+                ", durationSum=" + durationSum +
+                ", maxSteps=" + maxSteps +
+                ", maxDuration=" + maxDuration +
+                '}';
+    }
+
+    /**
+     * Get the local calendar date the given timestamp is in, as used for {@link #day}.
+     *
+     * @param timestamp Timestamp in millis
+     * @return Number of days since 1970-01-01
+     */
+    public static int getDay(long timestamp) {
+        return getDay(new LocalDate(timestamp));
+    }
+
+    /**
+     * Get the given date as used for {@link #day}.
+     *
+     * @param date Local date
+     * @return Number of days since 1970-01-01
+     */
+    public static int getDay(LocalDate date) {
+        return Days.daysBetween(EPOCH, date).getDays();
+    }
+
+    /**
+     * Get the local midnight the given day starts at, in the current time zone.
+     *
+     * @param day Number of days since 1970-01-01
+     * @return Start of the day in millis
+     */
+    private static long getDayStart(int day) {
+        return EPOCH.plusDays(day).toDateTimeAtStartOfDay().getMillis();
+    }
+
+    /**
+     * Get the statistics of the day the given timestamp is in.
+     *
+     * @param timestamp Timestamp within the day
+     * @return Day's statistics, or {@code null} if there is no session that day
+     */
+    public static DailyStats getForDay(long timestamp) {
+        return new Select().from(DailyStats.class).where("day = ?", getDay(timestamp))
+                .executeSingle();
+    }
+
+    /**
+     * Get the statistics of consecutive days with a single query, e.g. for a whole week.
+     *
+     * @param timestamp Timestamp within the first day
+     * @param dayCount Number of days
+     * @return Statistics for each day, ordered by day, days without sessions have all values
+     *         set to zero
+     */
+    public static DailyStats[] getForDays(long timestamp, int dayCount) {
+        int firstDay = getDay(timestamp);
+        List<DailyStats> stored = new Select()
+                .from(DailyStats.class)
+                .where("day >= ?", firstDay)
+                .and("day < ?", firstDay + dayCount)
+                .orderBy("day ASC")
+                .execute();
+
+        return fillDays(stored, firstDay, dayCount);
+    }
+
+    /**
+     * Place the stored days at their position within the requested days, and fill the gaps
+     * with zero-valued entries.
+     *
+     * @param stored Stored days, all within the requested days
+     * @param firstDay First requested day
+     * @param dayCount Number of requested days
+     * @return Statistics for each day, ordered by day
+     */
+    private static DailyStats[] fillDays(List<DailyStats> stored, int firstDay, int dayCount) {
+        DailyStats[] days = new DailyStats[dayCount];
+        for (DailyStats dailyStats : stored) {
+            days[dailyStats.day - firstDay] = dailyStats;
+        }
+
+        for (int i = 0; i < dayCount; i++) {
+            if (days[i] == null) {
+                days[i] = new DailyStats();
+                days[i].day = firstDay + i;
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Get the merged histogram of steps per call minute of all days within a date range.
+     *
+     * @param from First day of the range
+     * @param to Last day of the range, inclusive
+     * @return Steps per minute histogram, empty if there are no sessions within the range
+     */
+    public static StepHistogram getMinuteHistogram(LocalDate from, LocalDate to) {
+        return getHistogram("minute_histogram", getDay(from), getDay(to) + 1);
+    }
+
+    /**
+     * Get the merged histogram of steps per call minute of all sessions ever recorded.
+     *
+     * @return Steps per minute histogram
+     */
+    public static StepHistogram getMinuteHistogram() {
+        return getHistogram("minute_histogram", Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the merged histogram of session paces of all days within a date range.
+     *
+     * @param from First day of the range
+     * @param to Last day of the range, inclusive
+     * @return Pace histogram, empty if there are no sessions within the range
+     */
+    public static StepHistogram getPaceHistogram(LocalDate from, LocalDate to) {
+        return getHistogram("pace_histogram", getDay(from), getDay(to) + 1);
+    }
+
+    /**
+     * Get the merged histogram of session paces of all sessions ever recorded.
+     *
+     * @return Pace histogram
+     */
+    public static StepHistogram getPaceHistogram() {
+        return getHistogram("pace_histogram", Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    private static StepHistogram getHistogram(String column, int firstDay, int endDay) {
+        Cursor cursor = ActiveAndroid.getDatabase().rawQuery(
+                "SELECT " + column + " FROM daily_stats WHERE day >= ? AND day < ?",
+                new String[] {String.valueOf(firstDay), String.valueOf(endDay)});
+
+        StepHistogram histogram = new StepHistogram();
+        try {
+            while (cursor.moveToNext()) {
+                if (!cursor.isNull(0)) {
+                    histogram.merge(StepHistogram.decode(cursor.getBlob(0)));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return histogram;
+    }
+
+    /**
+     * Add the histogram columns to the {@code daily_stats} table if they are missing, i.e.
+     * after upgrading from a version that had daily statistics without them.
+     * Needs to be called at application start, before any call session is stored.
+     *
+     * @return {@code true} if the columns were added, and existing days need a
+     *         {@link #rebuild()} to fill them
+     */
+    public static boolean addHistogramColumns() {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        boolean added = MinuteDataMigration.addColumnIfMissing(db, "daily_stats",
+                "minute_histogram", "BLOB");
+        added |= MinuteDataMigration.addColumnIfMissing(db, "daily_stats",
+                "pace_histogram", "BLOB");
+        return added;
+    }
+
+    /**
+     * Add a newly inserted session to its day's statistics.
+     * Should be called within the same transaction the session is inserted in.
+     *
+     * @param callSession Inserted call session
+     * @param steps Number of steps of each call minute with steps
+     */
+    static void addSession(CallSession callSession, int[] steps) {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        int day = getDay(callSession.timestamp);
+
+        Cursor cursor = db.rawQuery("SELECT minute_histogram, pace_histogram "
+                + "FROM daily_stats WHERE day = ?", new String[] {String.valueOf(day)});
+        boolean exists = cursor.moveToFirst();
+        StepHistogram minuteHistogram =
+                StepHistogram.decode(exists ? cursor.getBlob(0) : null);
+        StepHistogram paceHistogram =
+                StepHistogram.decode(exists ? cursor.getBlob(1) : null);
+        cursor.close();
+
+        for (int minuteSteps : steps) {
+            minuteHistogram.add(minuteSteps);
+        }
+        addSessionToHistograms(minuteHistogram, paceHistogram,
+                callSession.duration, callSession.stepCount, steps.length);
+
+        SQLiteStatement statement;
+        if (exists) {
+            statement = db.compileStatement("UPDATE daily_stats SET "
+                    + "session_count = session_count + 1, "
+                    + "step_sum = step_sum + ?, "
+                    + "duration_sum = duration_sum + ?, "
+                    + "max_steps = MAX(max_steps, ?), "
+                    + "max_duration = MAX(max_duration, ?), "
+                    + "minute_histogram = ?, "
+                    + "pace_histogram = ? "
+                    + "WHERE day = ?");
+        } else {
+            statement = db.compileStatement("INSERT INTO daily_stats "
+                    + "(session_count, step_sum, duration_sum, max_steps, max_duration, "
+                    + "minute_histogram, pace_histogram, day) VALUES (1, ?, ?, ?, ?, ?, ?, ?)");
+        }
+        statement.bindLong(1, callSession.stepCount);
+        statement.bindLong(2, callSession.duration);
+        statement.bindLong(3, callSession.stepCount);
+        statement.bindLong(4, callSession.duration);
+        statement.bindBlob(5, minuteHistogram.encode());
+        statement.bindBlob(6, paceHistogram.encode());
+        statement.bindLong(7, day);
+        statement.execute();
+        statement.close();
+    }
+
+    /**
+     * Add what's not covered by the minutes with steps of a session to the histograms:
+     * its minutes without steps, which are not stored, and the session's pace.
+     *
+     * @param minuteHistogram Histogram of steps per minute
+     * @param paceHistogram Histogram of session paces
+     * @param duration Call duration in millis
+     * @param stepCount Call step count
+     * @param stepMinutes Number of call minutes with steps
+     */
+    private static void addSessionToHistograms(StepHistogram minuteHistogram,
+                                               StepHistogram paceHistogram,
+                                               long duration, long stepCount, int stepMinutes) {
+        // same as SessionCruncher, the last started minute counts as well
+        long sessionMinutes = (long) Utils.millisToMinutes(duration) + 1;
+        if (sessionMinutes > stepMinutes) {
+            minuteHistogram.add(0, (int) (sessionMinutes - stepMinutes));
+        }
+
+        float durationMinutes = Utils.millisToMinutes(duration);
+        if (durationMinutes > 0) {
+            paceHistogram.add(Math.round(stepCount / durationMinutes));
+        }
+    }
+
+    /**
+     * Recompute a single day's statistics from its sessions, e.g. after one was deleted,
+     * as the max values and histograms can't be adjusted otherwise.
+     * Should be called within the same transaction the sessions are modified in.
+     *
+     * @param timestamp Timestamp within the day
+     */
+    static void recomputeDay(long timestamp) {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        int day = getDay(timestamp);
+
+        db.execSQL("DELETE FROM daily_stats WHERE day = ?", new Object[] {day});
+        insertDays(db, getDayStart(day), getDayStart(day + 1));
+    }
+
+    /**
+     * Rebuild all daily statistics from scratch, within a single transaction.
+     *
+     * @return Number of days with sessions
+     */
+    public static int rebuild() {
+        long start = System.currentTimeMillis();
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        int days;
+
+        ActiveAndroid.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM daily_stats");
+            days = insertDays(db, Long.MIN_VALUE, Long.MAX_VALUE);
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+
+        DebugLog.i(TAG, String.format(Locale.US, "Rebuilt %d days in %d ms",
+                days, System.currentTimeMillis() - start));
+        return days;
+    }
+
+    /**
+     * Compute and insert the statistics of all days with sessions within the given time range,
+     * in a single pass over the sessions joined with their minute rows.
+     *
+     * @param start Range start in millis, inclusive
+     * @param end Range end in millis, exclusive
+     * @return Number of inserted days
+     */
+    private static int insertDays(SQLiteDatabase db, long start, long end) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO daily_stats "
+                + "(day, session_count, step_sum, duration_sum, max_steps, max_duration, "
+                + "minute_histogram, pace_histogram) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        Cursor cursor = db.rawQuery("SELECT s.Id, s.timestamp, s.step_count, s.duration, "
+                + "s.minute_data, m.steps FROM call_session s "
+                + "LEFT JOIN minute_steps m ON m.call_session = s.Id "
+                + "WHERE s.timestamp >= ? AND s.timestamp < ? "
+                + "ORDER BY s.timestamp ASC, s.Id ASC",
+                new String[] {String.valueOf(start), String.valueOf(end)});
+
+        int days = 0;
+        DailyStats stats = null;
+        long nextDay = Long.MIN_VALUE;
+        StepHistogram minuteHistogram = null;
+        StepHistogram paceHistogram = null;
+
+        long sessionId = -1;
+        long sessionSteps = 0;
+        long sessionDuration = 0;
+        int stepMinutes = 0;
+
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+
+                if (id != sessionId) {
+                    if (stats != null) {
+                        addSessionToHistograms(minuteHistogram, paceHistogram,
+                                sessionDuration, sessionSteps, stepMinutes);
+                    }
+
+                    long timestamp = cursor.getLong(1);
+                    if (timestamp >= nextDay) {
+                        if (stats != null) {
+                            insertDay(insert, stats, minuteHistogram, paceHistogram);
+                            days++;
+                        }
+                        stats = new DailyStats();
+                        stats.day = getDay(timestamp);
+                        nextDay = getDayStart(stats.day + 1);
+                        minuteHistogram = new StepHistogram();
+                        paceHistogram = new StepHistogram();
+                    }
+
+                    sessionId = id;
+                    sessionSteps = cursor.getLong(2);
+                    sessionDuration = cursor.getLong(3);
+                    stepMinutes = 0;
+
+                    stats.sessionCount++;
+                    stats.stepSum += sessionSteps;
+                    stats.durationSum += sessionDuration;
+                    stats.maxSteps = Math.max(stats.maxSteps, sessionSteps);
+                    stats.maxDuration = Math.max(stats.maxDuration, sessionDuration);
+
+                    if (!cursor.isNull(4)) {
+                        for (MinuteSteps minuteSteps :
+                                MinuteStepsCodec.decode(null, cursor.getBlob(4))) {
+                            minuteHistogram.add(minuteSteps.steps);
+                            stepMinutes++;
+                        }
+                    }
+                }
+
+                if (!cursor.isNull(5)) {
+                    minuteHistogram.add(cursor.getInt(5));
+                    stepMinutes++;
+                }
+            }
+
+            if (stats != null) {
+                addSessionToHistograms(minuteHistogram, paceHistogram,
+                        sessionDuration, sessionSteps, stepMinutes);
+                insertDay(insert, stats, minuteHistogram, paceHistogram);
+                days++;
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+
+        return days;
+    }
+
+    /**
+     * Rebuild the daily statistics if there are none yet, but there are call sessions,
+     * i.e. after upgrading from a database version without daily statistics, or with
+     * days still keyed by their midnight in millis, which migration 5 drops.
+     *
+     * @return {@code true} if the statistics were rebuilt
+     */
+    public static boolean rebuildIfEmpty() {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        Cursor cursor = db.rawQuery("SELECT EXISTS (SELECT 1 FROM call_session), "
+                + "EXISTS (SELECT 1 FROM daily_stats)", null);
+
+        boolean rebuild = cursor.moveToFirst() && cursor.getInt(0) == 1 && cursor.getInt(1) == 0;
+        cursor.close();
+
+        if (rebuild) {
+            rebuild();
+        }
+        return rebuild;
+    }
+
+    private static void insertDay(SQLiteStatement insert, DailyStats stats,
+                                  StepHistogram minuteHistogram, StepHistogram paceHistogram) {
+        insert.bindLong(1, stats.day);
+        insert.bindLong(2, stats.sessionCount);
+        insert.bindLong(3, stats.stepSum);
+        insert.bindLong(4, stats.durationSum);
+        insert.bindLong(5, stats.maxSteps);
+        insert.bindLong(6, stats.maxDuration);
+        insert.bindBlob(7, minuteHistogram.encode());
+        insert.bindBlob(8, paceHistogram.encode());
+        insert.executeInsert();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import fi.craplab.roameo.util.DebugLog;
+
+/**
+ * Single background thread all database writes are submitted to.
+ *
+ * With the database in write-ahead-log mode (see {@link fi.craplab.roameo.RoameoApplication}),
+ * reads on any other thread use their own connection and never wait for a write in progress.
+ * Writes on the other hand are serialized anyway by SQLite, so running them all on one thread
+ * keeps them off the main thread and in a well-defined order, without them waiting for
+ * each other's locks.
+ */
+public final class DatabaseWriter {
+    private static final String TAG = DatabaseWriter.class.getSimpleName();
+    private static final String THREAD_NAME = "DatabaseWriter";
+
+    private static volatile Thread sThread;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    sThread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, THREAD_NAME);
+                    return sThread;
+                }
+            });
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private DatabaseWriter() {
+        /* static access only */
+    }
+
+    /**
+     * Queue a database write.
+     *
+     * @param write Write operation
+     */
+    public static void execute(Runnable write) {
+        execute(write, null);
+    }
+
+    /**
+     * Queue a database write, and run the given callback on the main thread once it's done.
+     *
+     * The callback is not run if the write throws an exception.
+     *
+     * @param write Write operation
+     * @param onComplete Callback run on the main thread after the write, or {@code null}
+     */
+    public static void execute(final Runnable write, final Runnable onComplete) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write.run();
+                } catch (RuntimeException e) {
+                    DebugLog.e(TAG, "Database write failed", e);
+                    return;
+                }
+
+                if (onComplete != null) {
+                    sMainHandler.post(onComplete);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a database write on the writer thread and wait for its result.
+     *
+     * Meant for background threads that need to know the write succeeded before moving on.
+     * Never call this from the main thread. If called from the writer thread itself, the
+     * write is run directly.
+     *
+     * @param write Write operation
+     * @param <T> Result type
+     * @return Result of the write operation
+     * @throws RuntimeException if the write operation throws one
+     */
+    public static <T> T call(Callable<T> write) {
+        if (Thread.currentThread() == sThread) {
+            try {
+                return write.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        try {
+            return sExecutor.submit(write).get();
+
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for database write", e);
+        }
+    }
+}
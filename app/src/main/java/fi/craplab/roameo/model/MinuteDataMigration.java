@@ -0,0 +1,195 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Cache;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import fi.craplab.roameo.util.DebugLog;
+
+/**
+ * Database migration for the packed minute steps stored in {@link CallSession#minuteData}.
+ *
+ * Adding the column can't be done in a migration script, as ActiveAndroid runs all scripts
+ * also on a fresh install, after it already created the tables including the new column.
+ * Converting existing {@link MinuteSteps} rows needs {@link MinuteStepsCodec} anyway.
+ */
+public final class MinuteDataMigration {
+    private static final String TAG = MinuteDataMigration.class.getSimpleName();
+
+    private MinuteDataMigration() {
+        /* static helper class */
+    }
+
+    /**
+     * Add the {@code minute_data} column to the {@code call_session} table if it's missing.
+     * Needs to be called at application start, before any call session is stored.
+     */
+    public static void addColumn() {
+        addColumnIfMissing(ActiveAndroid.getDatabase(), "call_session", "minute_data", "BLOB");
+    }
+
+    /**
+     * Add a column to an existing table, unless it's already there. Also used for columns
+     * added to other tables later on, for the same reason as described above.
+     *
+     * @param db Database
+     * @param table Table name
+     * @param column Column name
+     * @param type Column type
+     * @return {@code true} if the column was added
+     */
+    static boolean addColumnIfMissing(SQLiteDatabase db, String table, String column,
+                                      String type) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        boolean found = false;
+        while (!found && cursor.moveToNext()) {
+            found = column.equals(cursor.getString(cursor.getColumnIndex("name")));
+        }
+        cursor.close();
+
+        if (!found) {
+            DebugLog.i(TAG, "Adding " + column + " column to " + table);
+            db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+        }
+        return !found;
+    }
+
+    /**
+     * Pack the {@link MinuteSteps} rows of all call sessions into their {@code minute_data}
+     * column, and delete the rows afterwards, all within a single transaction.
+     *
+     * A session that can't be packed keeps its rows, and is still read from there. Sessions
+     * loaded before their minutes got packed find them via {@link CallSession#loadMinuteSteps()}
+     * as well, so this can run on the {@link DatabaseWriter} thread after the UI is up.
+     *
+     * Accesses the database, so don't call this from the main thread.
+     *
+     * @return Number of converted call sessions
+     */
+    public static int packAll() {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        Cursor cursor = db.rawQuery("SELECT call_session, minute, steps FROM minute_steps "
+                + "ORDER BY call_session, minute", null);
+
+        if (cursor.getCount() == 0) {
+            cursor.close();
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        int sessionCount = 0;
+        int failedCount = 0;
+        int[] minutes = new int[128];
+        int[] steps = new int[128];
+
+        ActiveAndroid.beginTransaction();
+        SQLiteStatement update = db.compileStatement(
+                "UPDATE call_session SET minute_data = ? WHERE Id = ?");
+        SQLiteStatement delete = db.compileStatement(
+                "DELETE FROM minute_steps WHERE call_session = ?");
+        try {
+            long sessionId = -1;
+            int count = 0;
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                if (id != sessionId && count > 0) {
+                    if (packSession(update, delete, sessionId, minutes, steps, count)) {
+                        sessionCount++;
+                    } else {
+                        failedCount++;
+                    }
+                    count = 0;
+                }
+                sessionId = id;
+
+                if (count == minutes.length) {
+                    minutes = Arrays.copyOf(minutes, count * 2);
+                    steps = Arrays.copyOf(steps, count * 2);
+                }
+                minutes[count] = cursor.getInt(1);
+                steps[count] = cursor.getInt(2);
+                count++;
+            }
+
+            if (count > 0) {
+                if (packSession(update, delete, sessionId, minutes, steps, count)) {
+                    sessionCount++;
+                } else {
+                    failedCount++;
+                }
+            }
+
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            update.close();
+            delete.close();
+            ActiveAndroid.endTransaction();
+            cursor.close();
+        }
+
+        // drop anything loaded before with the minutes not yet packed
+        Cache.clear();
+        SessionListeners.notifyChanged();
+
+        DebugLog.i(TAG, String.format(Locale.US,
+                "Packed minutes of %d sessions in %d ms, %d sessions left unpacked",
+                sessionCount, System.currentTimeMillis() - start, failedCount));
+        return sessionCount;
+    }
+
+    /**
+     * Pack a single session's minutes and delete its rows.
+     *
+     * @return {@code true} if packed, {@code false} if the session was left as it is
+     */
+    private static boolean packSession(SQLiteStatement update, SQLiteStatement delete,
+                                       long sessionId, int[] minutes, int[] steps, int count) {
+        try {
+            update.bindBlob(1, MinuteStepsCodec.encode(
+                    Arrays.copyOf(minutes, count), Arrays.copyOf(steps, count)));
+            update.bindLong(2, sessionId);
+            if (update.executeUpdateDelete() != 1) {
+                // minutes of a session that doesn't exist anymore, nothing to pack them into
+                DebugLog.w(TAG, "No session " + sessionId + " for its minutes, leaving them");
+                return false;
+            }
+
+            delete.bindLong(1, sessionId);
+            delete.executeUpdateDelete();
+            return true;
+
+        } catch (RuntimeException e) {
+            // a failed statement is rolled back on its own, the transaction carries on
+            DebugLog.e(TAG, "Cannot pack minutes of session " + sessionId, e);
+            return false;
+        }
+    }
+}
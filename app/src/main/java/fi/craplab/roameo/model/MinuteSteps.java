@@ -21,6 +21,10 @@
 
 package fi.craplab.roameo.model;
 
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.activeandroid.ActiveAndroid;
 import com.activeandroid.Model;
 import com.activeandroid.annotation.Column;
 import com.activeandroid.annotation.Table;
@@ -33,6 +37,9 @@ import com.google.gson.annotations.Expose;
  */
 @Table(name="minute_steps")
 public class MinuteSteps extends Model {
+    private static final String INSERT_SQL =
+            "INSERT INTO minute_steps (call_session, minute, steps) VALUES (?, ?, ?)";
+
     @Column(name="call_session", onDelete = Column.ForeignKeyAction.CASCADE)
     public CallSession callSession;
 
@@ -46,6 +53,83 @@ public class MinuteSteps extends Model {
 
     public MinuteSteps() {}
 
+    /**
+     * Store a {@link CallSession} and all its minutes within a single transaction, adding a
+     * new session to its day's {@link DailyStats} and the {@link SummaryStats} as well.
+     * {@link SessionListeners} are notified once it's committed.
+     *
+     * Saving each {@code MinuteSteps} object on its own goes through ActiveAndroid's reflection
+     * and an implicit transaction per row, so instead all minutes are inserted through one
+     * compiled statement, reused for each row.
+     *
+     * @param callSession New call session to store
+     * @param minutes Call minutes, starting at zero
+     * @param steps Number of steps for each entry in {@code minutes}
+     * @return Call session id
+     */
+    public static long saveAll(CallSession callSession, int[] minutes, int[] steps) {
+        return saveAll(callSession, minutes, steps, false);
+    }
+
+    /**
+     * Store a {@link CallSession} and all its minutes within a single transaction, either as
+     * separate {@code MinuteSteps} rows, or packed into {@link CallSession#minuteData}.
+     *
+     * @param callSession New call session to store
+     * @param minutes Call minutes in ascending order, starting at zero
+     * @param steps Number of steps for each entry in {@code minutes}
+     * @param packed {@code true} to store the minutes packed inside the call session
+     * @return Call session id
+     * @throws IllegalArgumentException if the call session is already stored
+     * @see MinuteStepsCodec
+     */
+    public static long saveAll(CallSession callSession, int[] minutes, int[] steps,
+                               boolean packed) {
+        if (minutes.length != steps.length) {
+            throw new IllegalArgumentException("minutes and steps differ in length: "
+                    + minutes.length + " vs " + steps.length);
+        }
+
+        if (callSession.getId() != null) {
+            // its old minutes and statistics would have to be replaced, nothing needs that
+            throw new IllegalArgumentException("CallSession " + callSession.getId()
+                    + " is already stored");
+        }
+
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        long id;
+
+        ActiveAndroid.beginTransaction();
+        try {
+            callSession.minuteData = packed ? MinuteStepsCodec.encode(minutes, steps) : null;
+            id = callSession.save();
+
+            if (!packed) {
+                SQLiteStatement statement = db.compileStatement(INSERT_SQL);
+                try {
+                    for (int i = 0; i < minutes.length; i++) {
+                        statement.bindLong(1, id);
+                        statement.bindLong(2, minutes[i]);
+                        statement.bindLong(3, steps[i]);
+                        statement.executeInsert();
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+
+            DailyStats.addSession(callSession, steps);
+            SummaryStats.addSession(callSession);
+
+            ActiveAndroid.setTransactionSuccessful();
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+
+        SessionListeners.notifySaved(callSession, true);
+        return id;
+    }
+
     @Override
     public String toString() {
         return "MinuteSteps{" +
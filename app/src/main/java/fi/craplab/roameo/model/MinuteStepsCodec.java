@@ -0,0 +1,233 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encoder and decoder for the packed minute steps format stored in {@link CallSession#minuteData}.
+ *
+ * Instead of one {@link MinuteSteps} database row per minute with steps, the whole series is
+ * stored as a single BLOB inside the call session itself:
+ * <pre>
+ *   byte   format version
+ *   varint number of entries
+ *   for each entry:
+ *     varint minute delta, i.e. minutes skipped since the previous entry
+ *     varint steps
+ * </pre>
+ * Varints are unsigned LEB128, so a typical minute with less than 128 steps right after the
+ * previous one takes two bytes.
+ */
+public final class MinuteStepsCodec {
+    private static final byte VERSION = 1;
+
+    private MinuteStepsCodec() {
+        /* static helper class */
+    }
+
+    /**
+     * Encode the given minutes.
+     *
+     * Minutes are expected in ascending order, starting at zero, with non-negative steps, as
+     * they are collected during a call. Data stored by older versions may not be, so anything
+     * else is normalized first: minutes are sorted, repeated minutes are merged by adding up
+     * their steps, negative minutes are dropped and negative steps count as zero.
+     *
+     * @param minutes Call minutes
+     * @param steps Number of steps for each entry in {@code minutes}
+     * @return Packed minute steps
+     */
+    public static byte[] encode(int[] minutes, int[] steps) {
+        if (minutes.length != steps.length) {
+            throw new IllegalArgumentException("got " + minutes.length + " minutes but "
+                    + steps.length + " step counts");
+        }
+
+        if (!isNormalized(minutes, steps)) {
+            int[][] normalized = normalize(minutes, steps);
+            minutes = normalized[0];
+            steps = normalized[1];
+        }
+
+        // worst case 5 bytes per varint
+        byte[] buffer = new byte[1 + 5 + minutes.length * 10];
+        int position = 0;
+
+        buffer[position++] = VERSION;
+        position = writeVarint(buffer, position, minutes.length);
+
+        int previous = -1;
+        for (int i = 0; i < minutes.length; i++) {
+            position = writeVarint(buffer, position, minutes[i] - previous - 1);
+            position = writeVarint(buffer, position, steps[i]);
+            previous = minutes[i];
+        }
+
+        byte[] packed = new byte[position];
+        System.arraycopy(buffer, 0, packed, 0, position);
+        return packed;
+    }
+
+    private static boolean isNormalized(int[] minutes, int[] steps) {
+        int previous = -1;
+        for (int i = 0; i < minutes.length; i++) {
+            if (minutes[i] <= previous || steps[i] < 0) {
+                return false;
+            }
+            previous = minutes[i];
+        }
+        return true;
+    }
+
+    /**
+     * Sort and merge the given minutes, see {@link #encode(int[], int[])}.
+     *
+     * @return Normalized minutes and steps
+     */
+    private static int[][] normalize(int[] minutes, int[] steps) {
+        // minute in the upper half, original index in the lower half, sorts by minute
+        long[] order = new long[minutes.length];
+        int valid = 0;
+        for (int i = 0; i < minutes.length; i++) {
+            if (minutes[i] >= 0) {
+                order[valid++] = ((long) minutes[i] << 32) | i;
+            }
+        }
+        Arrays.sort(order, 0, valid);
+
+        int[] sortedMinutes = new int[valid];
+        int[] sortedSteps = new int[valid];
+        int count = 0;
+        for (int i = 0; i < valid; i++) {
+            int minute = (int) (order[i] >>> 32);
+            int stepCount = Math.max(steps[(int) order[i]], 0);
+
+            if (count > 0 && sortedMinutes[count - 1] == minute) {
+                sortedSteps[count - 1] += stepCount;
+            } else {
+                sortedMinutes[count] = minute;
+                sortedSteps[count] = stepCount;
+                count++;
+            }
+        }
+
+        return new int[][] {
+                Arrays.copyOf(sortedMinutes, count),
+                Arrays.copyOf(sortedSteps, count)
+        };
+    }
+
+    /**
+     * Decode packed minute steps into {@link MinuteSteps} objects, as they would be read
+     * from the database.
+     *
+     * @param callSession Call session the minutes belong to
+     * @param packed Packed minute steps
+     * @return List of {@link MinuteSteps}, ordered by minute
+     */
+    public static List<MinuteSteps> decode(CallSession callSession, byte[] packed) {
+        int[][] decoded = decodeArrays(packed);
+        List<MinuteSteps> list = new ArrayList<>(decoded[0].length);
+
+        for (int i = 0; i < decoded[0].length; i++) {
+            MinuteSteps minuteSteps = new MinuteSteps();
+            minuteSteps.callSession = callSession;
+            minuteSteps.minute = decoded[0][i];
+            minuteSteps.steps = decoded[1][i];
+            list.add(minuteSteps);
+        }
+
+        return list;
+    }
+
+    /**
+     * Decode packed minute steps into plain arrays.
+     *
+     * @param packed Packed minute steps
+     * @return Minutes in ascending order, and the number of steps for each of them
+     */
+    static int[][] decodeArrays(byte[] packed) {
+        if (packed.length == 0 || packed[0] != VERSION) {
+            throw new IllegalArgumentException("unsupported minute data format");
+        }
+
+        int[] position = {1};
+        int count = readVarint(packed, position);
+        // every entry takes at least two bytes, don't trust a corrupt count
+        if (count > (packed.length - position[0]) / 2) {
+            throw new IllegalArgumentException("corrupt packed data");
+        }
+
+        int[] minutes = new int[count];
+        int[] steps = new int[count];
+
+        int minute = -1;
+        for (int i = 0; i < count; i++) {
+            minute += readVarint(packed, position) + 1;
+            minutes[i] = minute;
+            steps[i] = readVarint(packed, position);
+        }
+
+        return new int[][] {minutes, steps};
+    }
+
+    /**
+     * Write an unsigned LEB128 varint, also used by {@link StepHistogram}.
+     *
+     * @return Position after the written varint
+     */
+    static int writeVarint(byte[] buffer, int position, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Read an unsigned LEB128 varint, also used by {@link StepHistogram}.
+     *
+     * @param position Position to read from, advanced past the varint
+     * @return Varint value
+     */
+    static int readVarint(byte[] buffer, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            if (position[0] >= buffer.length || shift > 28) {
+                throw new IllegalArgumentException("corrupt packed data");
+            }
+            b = buffer[position[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+}
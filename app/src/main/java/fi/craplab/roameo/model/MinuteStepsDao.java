@@ -0,0 +1,92 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import android.database.Cursor;
+
+import com.activeandroid.ActiveAndroid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Read access to {@link MinuteSteps} rows without going through ActiveAndroid,
+ * see {@link CallSessionDao}.
+ */
+public final class MinuteStepsDao {
+    private static final String BY_SESSION_SQL =
+            "SELECT Id, minute, steps FROM minute_steps WHERE call_session = ? "
+                    + "ORDER BY minute";
+    private static final String PACKED_BY_SESSION_SQL =
+            "SELECT minute_data FROM call_session WHERE Id = ?";
+
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_MINUTE = 1;
+    private static final int COLUMN_STEPS = 2;
+
+    private MinuteStepsDao() {
+        /* static access only */
+    }
+
+    /**
+     * Get all {@link MinuteSteps} rows stored for the given call session.
+     *
+     * @param callSession Call session, already stored in the database
+     * @return List of the session's minute steps, ordered by minute
+     */
+    public static List<MinuteSteps> getForSession(CallSession callSession) {
+        Cursor cursor = ActiveAndroid.getDatabase().rawQuery(BY_SESSION_SQL,
+                new String[] {String.valueOf(callSession.getId())});
+        try {
+            List<MinuteSteps> minuteStepsList = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                MinuteSteps minuteSteps = new MinuteSteps();
+                CallSessionDao.setId(minuteSteps, cursor.getLong(COLUMN_ID));
+                minuteSteps.callSession = callSession;
+                minuteSteps.minute = cursor.getInt(COLUMN_MINUTE);
+                minuteSteps.steps = cursor.getInt(COLUMN_STEPS);
+                minuteStepsList.add(minuteSteps);
+            }
+            return minuteStepsList;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Get the packed minutes currently stored for the given call session, for sessions loaded
+     * before {@link MinuteDataMigration} packed them.
+     *
+     * @param callSession Call session, already stored in the database
+     * @return Packed minute steps, or {@code null} if the minutes aren't packed
+     */
+    static byte[] getPackedForSession(CallSession callSession) {
+        Cursor cursor = ActiveAndroid.getDatabase().rawQuery(PACKED_BY_SESSION_SQL,
+                new String[] {String.valueOf(callSession.getId())});
+        try {
+            return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import android.database.Cursor;
+
+/**
+ * Aggregated values over a set of {@link CallSession}s, see {@link CallSession#getAggregate()}.
+ */
+public class SessionAggregate {
+    public final long sessionCount;
+    public final long stepSum;
+    /** Sum of all call durations in millis */
+    public final long durationSum;
+    public final long maxSteps;
+    /** Longest call duration in millis */
+    public final long maxDuration;
+
+    /**
+     * Create the aggregate from the current cursor row, holding count, step sum, duration sum,
+     * max steps and max duration in that order.
+     *
+     * @param cursor Cursor positioned on the aggregate row
+     */
+    SessionAggregate(Cursor cursor) {
+        sessionCount = cursor.getLong(0);
+        stepSum = cursor.getLong(1);
+        durationSum = cursor.getLong(2);
+        maxSteps = cursor.getLong(3);
+        maxDuration = cursor.getLong(4);
+    }
+
+    SessionAggregate(long sessionCount, long stepSum, long durationSum,
+                     long maxSteps, long maxDuration) {
+        this.sessionCount = sessionCount;
+        this.stepSum = stepSum;
+        this.durationSum = durationSum;
+        this.maxSteps = maxSteps;
+        this.maxDuration = maxDuration;
+    }
+
+    /**
+     * Get the average number of steps per session.
+     *
+     * @return Average steps, zero if there are no sessions
+     */
+    public long getAverageSteps() {
+        return (sessionCount > 0) ? stepSum / sessionCount : 0;
+    }
+
+    /**
+     * Get the average call duration per session.
+     *
+     * @return Average duration in millis, zero if there are no sessions
+     */
+    public long getAverageDuration() {
+        return (sessionCount > 0) ? durationSum / sessionCount : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionAggregate{" +
+                "sessionCount=" + sessionCount +
+                ", stepSum=" + stepSum +
+                ", durationSum=" + durationSum +
+                ", maxSteps=" + maxSteps +
+                ", maxDuration=" + maxDuration +
+                '}';
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import android.util.LruCache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Size bounded cache for {@link CallSession}s looked up by id, and their {@link MinuteSteps}.
+ *
+ * The same session is typically looked up several times in a row, e.g. by the details screen,
+ * its delete dialog, and again after a Google Fit upload. Entries are invalidated through
+ * {@link SessionListeners} whenever a session is written.
+ *
+ * Cached objects are shared between all callers and threads, so they must not be modified.
+ * Changes are written to the database, and the listener notification drops the stale entry.
+ * Minute step lists are unmodifiable.
+ */
+public final class SessionCache {
+    private static final int MAX_SESSIONS = 32;
+    private static final int MAX_MINUTE_STEPS = 8;
+
+    private static final LruCache<Long, CallSession> sSessions = new LruCache<>(MAX_SESSIONS);
+    private static final LruCache<Long, List<MinuteSteps>> sMinuteSteps =
+            new LruCache<>(MAX_MINUTE_STEPS);
+
+    /**
+     * Incremented with each invalidation. Loads that started before that might have read
+     * the old data and are not cached.
+     */
+    private static int sGeneration;
+
+    static {
+        SessionListeners.register(new SessionListener() {
+            @Override
+            public void onSessionSaved(CallSession callSession, boolean inserted) {
+                invalidate(callSession.getId());
+            }
+
+            @Override
+            public void onSessionDeleted(CallSession callSession, long id) {
+                invalidate(id);
+            }
+
+            @Override
+            public void onSessionsChanged() {
+                clear();
+            }
+        });
+    }
+
+    private SessionCache() {
+        /* static access only */
+    }
+
+    /**
+     * Get a call session, from cache if possible.
+     *
+     * @param id Call session id
+     * @return Call session, or {@code null} if there is no session with the given id
+     */
+    static CallSession getSession(long id) {
+        CallSession callSession = sSessions.get(id);
+        if (callSession != null) {
+            return callSession;
+        }
+
+        int generation = getGeneration();
+        callSession = CallSessionDao.getById(id);
+        if (callSession != null) {
+            synchronized (SessionCache.class) {
+                if (generation == sGeneration) {
+                    sSessions.put(id, callSession);
+                }
+            }
+        }
+        return callSession;
+    }
+
+    /**
+     * Get the minute steps of a call session, from cache if possible.
+     *
+     * @param callSession Call session
+     * @return Unmodifiable list of the session's minute steps
+     */
+    static List<MinuteSteps> getMinuteSteps(CallSession callSession) {
+        Long id = callSession.getId();
+        if (id == null) {
+            // not stored (yet), nothing to cache it by
+            return callSession.loadMinuteSteps();
+        }
+
+        List<MinuteSteps> minuteSteps = sMinuteSteps.get(id);
+        if (minuteSteps != null) {
+            return minuteSteps;
+        }
+
+        int generation = getGeneration();
+        minuteSteps = Collections.unmodifiableList(callSession.loadMinuteSteps());
+        synchronized (SessionCache.class) {
+            if (generation == sGeneration) {
+                sMinuteSteps.put(id, minuteSteps);
+            }
+        }
+        return minuteSteps;
+    }
+
+    /**
+     * Drop a call session and its minute steps from the cache.
+     *
+     * @param id Call session id
+     */
+    private static synchronized void invalidate(long id) {
+        sGeneration++;
+        sSessions.remove(id);
+        sMinuteSteps.remove(id);
+    }
+
+    /**
+     * Drop all cached entries, e.g. after bulk changes.
+     */
+    private static synchronized void clear() {
+        sGeneration++;
+        sSessions.evictAll();
+        sMinuteSteps.evictAll();
+    }
+
+    /**
+     * Get the number of call session lookups served from the cache.
+     *
+     * @return Call session hit count
+     */
+    public static int hitCount() {
+        return sSessions.hitCount();
+    }
+
+    /**
+     * Get the number of call session lookups that needed a database query.
+     *
+     * @return Call session miss count
+     */
+    public static int missCount() {
+        return sSessions.missCount();
+    }
+
+    /**
+     * Get hit and miss counts of both call sessions and minute steps, for logging.
+     *
+     * @return Cache statistics
+     */
+    public static String getStatistics() {
+        return String.format(Locale.US, "sessions: %d hits, %d misses; minutes: %d hits, %d misses",
+                sSessions.hitCount(), sSessions.missCount(),
+                sMinuteSteps.hitCount(), sMinuteSteps.missCount());
+    }
+
+    private static synchronized int getGeneration() {
+        return sGeneration;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.model;
+
+/**
+ * Listener for written call sessions, to keep caches of session data up to date.
+ *
+ * Listeners are registered with {@link SessionListeners} and called after the write
+ * transaction has finished, on whatever thread wrote the session, which normally is the
+ * {@link DatabaseWriter} thread.
+ */
+public interface SessionListener {
+    /**
+     * Called after a call session was stored.
+     *
+     * @param callSession Call session
+     * @param inserted {@code true} if it was a new session, {@code false} if an existing one
+     *                 was updated
+     */
+    void onSessionSaved(CallSession callSession, boolean inserted);
+
+    /**
+     * Called after a call session was deleted.
+     *
+     * @param callSession Deleted call session, its id is no longer valid
+     * @param id Id the call session had
+     */
+    void onSessionDeleted(CallSession callSession, long id);
+
+    /**
+     * Called after bulk changes that bypassed the other callbacks, any session may have changed.
+     */
+    void onSessionsChanged();
+}
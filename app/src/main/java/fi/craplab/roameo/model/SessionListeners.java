@@ -0,0 +1,85 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.model;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of {@link SessionListener}s, notified by the model whenever call sessions are
+ * written.
+ *
+ * {@link MinuteSteps#saveAll(CallSession, int[], int[], boolean)} and
+ * {@link CallSession#deleteSession(long)} notify on their own, anything else writing sessions
+ * directly has to call {@link #notifySaved(CallSession, boolean)} or
+ * {@link #notifyChanged()} itself.
+ */
+public final class SessionListeners {
+    private static final List<SessionListener> sListeners = new CopyOnWriteArrayList<>();
+
+    private SessionListeners() {
+        /* static access only */
+    }
+
+    public static void register(SessionListener listener) {
+        sListeners.add(listener);
+    }
+
+    public static void unregister(SessionListener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Notify all listeners about a stored call session.
+     * Call this after the session's database transaction has finished.
+     *
+     * @param callSession Call session
+     * @param inserted {@code true} if it was a new session
+     */
+    public static void notifySaved(CallSession callSession, boolean inserted) {
+        for (SessionListener listener : sListeners) {
+            listener.onSessionSaved(callSession, inserted);
+        }
+    }
+
+    /**
+     * Notify all listeners about a deleted call session.
+     * Call this after the session's database transaction has finished.
+     *
+     * @param callSession Deleted call session
+     * @param id Id the call session had
+     */
+    static void notifyDeleted(CallSession callSession, long id) {
+        for (SessionListener listener : sListeners) {
+            listener.onSessionDeleted(callSession, id);
+        }
+    }
+
+    /**
+     * Notify all listeners about bulk changes, e.g. after all sessions were deleted.
+     */
+    public static void notifyChanged() {
+        for (SessionListener listener : sListeners) {
+            listener.onSessionsChanged();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import java.util.Arrays;
+
+/**
+ * Fixed bucket histogram of step values, e.g. steps walked within a call minute, or the pace
+ * of a whole call session in steps per minute.
+ *
+ * Each whole step value up to {@value #MAX_VALUE} has its own bucket, anything above goes
+ * into the last one. Histograms of different days simply add up, so percentiles over any
+ * number of days can be taken from their {@link DailyStats} without touching single minutes.
+ *
+ * Stored as BLOB in the same varint format as {@link MinuteStepsCodec}, listing only the
+ * non-empty buckets:
+ * <pre>
+ *   byte   format version
+ *   varint number of entries
+ *   for each entry:
+ *     varint bucket delta, i.e. buckets skipped since the previous entry
+ *     varint count
+ * </pre>
+ */
+public class StepHistogram {
+    private static final byte VERSION = 1;
+
+    /** Highest value with its own bucket, more steps per minute than anyone walks on a call */
+    public static final int MAX_VALUE = 250;
+
+    private final int[] mCounts = new int[MAX_VALUE + 1];
+    private long mTotal;
+
+    public StepHistogram() {
+    }
+
+    /**
+     * Create a histogram from its packed form.
+     *
+     * @param packed Packed histogram, or {@code null} for an empty one
+     * @return Histogram
+     */
+    public static StepHistogram decode(byte[] packed) {
+        StepHistogram histogram = new StepHistogram();
+        if (packed == null) {
+            return histogram;
+        }
+        if (packed.length == 0 || packed[0] != VERSION) {
+            throw new IllegalArgumentException("unsupported histogram format");
+        }
+
+        int[] position = {1};
+        int count = MinuteStepsCodec.readVarint(packed, position);
+
+        int bucket = -1;
+        for (int i = 0; i < count; i++) {
+            bucket += MinuteStepsCodec.readVarint(packed, position) + 1;
+            if (bucket > MAX_VALUE) {
+                throw new IllegalArgumentException("histogram bucket out of range: " + bucket);
+            }
+            histogram.add(bucket, MinuteStepsCodec.readVarint(packed, position));
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Get the histogram in its packed form.
+     *
+     * @return Packed histogram
+     */
+    public byte[] encode() {
+        int entries = 0;
+        for (int count : mCounts) {
+            if (count > 0) {
+                entries++;
+            }
+        }
+
+        // worst case 5 bytes per varint
+        byte[] buffer = new byte[1 + 5 + entries * 10];
+        int position = 0;
+
+        buffer[position++] = VERSION;
+        position = MinuteStepsCodec.writeVarint(buffer, position, entries);
+
+        int previous = -1;
+        for (int bucket = 0; bucket <= MAX_VALUE; bucket++) {
+            if (mCounts[bucket] > 0) {
+                position = MinuteStepsCodec.writeVarint(buffer, position, bucket - previous - 1);
+                position = MinuteStepsCodec.writeVarint(buffer, position, mCounts[bucket]);
+                previous = bucket;
+            }
+        }
+
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * Add a single value.
+     *
+     * @param value Step value, negative values count as zero
+     */
+    public void add(int value) {
+        add(value, 1);
+    }
+
+    /**
+     * Add the same value multiple times.
+     *
+     * Values come from stored step counts, which older versions may have stored negative,
+     * so they are clamped instead of failing the transaction they are added in.
+     *
+     * @param value Step value, negative values count as zero
+     * @param count Number of times to add the value, not negative
+     */
+    public void add(int value, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("invalid count " + count);
+        }
+        mCounts[Math.max(0, Math.min(value, MAX_VALUE))] += count;
+        mTotal += count;
+    }
+
+    /**
+     * Add all values of another histogram to this one.
+     *
+     * @param other Histogram to merge into this one
+     */
+    public void merge(StepHistogram other) {
+        for (int bucket = 0; bucket <= MAX_VALUE; bucket++) {
+            mCounts[bucket] += other.mCounts[bucket];
+        }
+        mTotal += other.mTotal;
+    }
+
+    /**
+     * Get the number of values added to the histogram.
+     *
+     * @return Value count
+     */
+    public long getCount() {
+        return mTotal;
+    }
+
+    /**
+     * Get the value below or at which the given share of all values lies, i.e. the
+     * nearest-rank percentile.
+     *
+     * @param percentile Percentile between 0 and 100
+     * @return Percentile value, {@value #MAX_VALUE} meaning at least that much,
+     *         or 0 if the histogram is empty
+     */
+    public int getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("invalid percentile " + percentile);
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mTotal));
+        long cumulative = 0;
+        for (int bucket = 0; bucket <= MAX_VALUE; bucket++) {
+            cumulative += mCounts[bucket];
+            if (cumulative >= rank) {
+                return bucket;
+            }
+        }
+
+        return 0;
+    }
+
+    public int getMedian() {
+        return getPercentile(50);
+    }
+
+    @Override
+    public String toString() {
+        return "StepHistogram{" +
+                "count=" + mTotal +
+                ", p50=" + getPercentile(50) +
+                ", p75=" + getPercentile(75) +
+                ", p90=" + getPercentile(90) +
+                '}';
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.model;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Model;
+import com.activeandroid.annotation.Column;
+import com.activeandroid.annotation.Table;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+
+import fi.craplab.roameo.util.DebugLog;
+
+/**
+ * All-time summary database model.
+ *
+ * A single row holding count, sums and max values over all {@link CallSession}s, so the summary
+ * screen doesn't have to aggregate the whole history after every new session. Instead, each
+ * inserted or deleted session is applied as delta, within the same transaction, by
+ * {@link MinuteSteps#saveAll(CallSession, int[], int[], boolean)} and
+ * {@link CallSession#deleteSession(long)}.
+ *
+ * The row carries a checksum over its values and the id of the newest session it includes.
+ * If either doesn't match, or the session count differs from the number of stored sessions,
+ * e.g. after sessions were inserted or deleted some other way, the summary is recomputed from
+ * all sessions once.
+ */
+@Table(name="summary_stats")
+public class SummaryStats extends Model {
+    private static final String TAG = SummaryStats.class.getSimpleName();
+
+    /** Id of the one and only row */
+    private static final long ROW_ID = 1;
+
+    private static final String MAX_ID_SQL = "SELECT IFNULL(MAX(Id), 0) FROM call_session";
+    private static final String VALIDATE_SQL =
+            "SELECT IFNULL(MAX(Id), 0), COUNT(*) FROM call_session";
+
+    /** Held while waiting for a rebuild, so concurrent callers don't queue one each */
+    private static final Object sRebuildLock = new Object();
+
+    @Column(name="session_count")
+    public long sessionCount;
+
+    @Column(name="step_sum")
+    public long stepSum;
+
+    /** Sum of all call durations in millis */
+    @Column(name="duration_sum")
+    public long durationSum;
+
+    @Column(name="max_steps")
+    public long maxSteps;
+
+    /** Longest call duration in millis */
+    @Column(name="max_duration")
+    public long maxDuration;
+
+    /** Id of the newest call session included, i.e. the highest one */
+    @Column(name="last_session_id")
+    public long lastSessionId;
+
+    @Column(name="checksum")
+    public long checksum;
+
+    public SummaryStats() {
+        /* default constructor for ActiveAndroid */
+    }
+
+    /**
+     * Get the all-time summary.
+     *
+     * If the stored summary is missing or doesn't match the stored sessions, it is rebuilt
+     * on the {@link DatabaseWriter} thread, and this waits for the result. Only one rebuild
+     * is queued at a time, anyone else asking meanwhile gets its result.
+     *
+     * Accesses the database, so don't call this from the main thread.
+     *
+     * @return Summary over all call sessions
+     */
+    public static SessionAggregate get() {
+        SummaryStats stats = loadValid(ActiveAndroid.getDatabase());
+        if (stats != null) {
+            return stats.toAggregate();
+        }
+
+        synchronized (sRebuildLock) {
+            // rebuilt by whoever held the lock before
+            stats = loadValid(ActiveAndroid.getDatabase());
+            if (stats != null) {
+                return stats.toAggregate();
+            }
+
+            DebugLog.i(TAG, "Stored summary missing or outdated, rebuilding");
+            return DatabaseWriter.call(new Callable<SessionAggregate>() {
+                @Override
+                public SessionAggregate call() {
+                    return rebuild();
+                }
+            });
+        }
+    }
+
+    /**
+     * Recompute the summary from all sessions and store it.
+     *
+     * @return Summary over all call sessions
+     */
+    public static SessionAggregate rebuild() {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+
+        ActiveAndroid.beginTransaction();
+        try {
+            SessionAggregate aggregate = CallSession.getAggregate();
+            SummaryStats stats = new SummaryStats();
+            stats.sessionCount = aggregate.sessionCount;
+            stats.stepSum = aggregate.stepSum;
+            stats.durationSum = aggregate.durationSum;
+            stats.maxSteps = aggregate.maxSteps;
+            stats.maxDuration = aggregate.maxDuration;
+            stats.lastSessionId = queryLong(db, MAX_ID_SQL, null);
+            store(db, stats);
+            ActiveAndroid.setTransactionSuccessful();
+            return aggregate;
+        } finally {
+            ActiveAndroid.endTransaction();
+        }
+    }
+
+    /**
+     * Drop the stored summary, e.g. after bulk changes, so it gets recomputed on next access.
+     */
+    public static void invalidate() {
+        ActiveAndroid.getDatabase().execSQL("DELETE FROM summary_stats");
+    }
+
+    /**
+     * Add a newly inserted session to the summary.
+     * Should be called within the same transaction the session is inserted in.
+     *
+     * @param callSession Inserted call session
+     */
+    static void addSession(CallSession callSession) {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        SummaryStats stats = load(db);
+        if (stats == null) {
+            return;
+        }
+
+        long previousId = queryLong(db, MAX_ID_SQL + " WHERE Id != ?",
+                new String[] {String.valueOf(callSession.getId())});
+        if (stats.lastSessionId != previousId) {
+            // missed some other change already, leave it to get() to recompute
+            invalidate();
+            return;
+        }
+
+        stats.sessionCount++;
+        stats.stepSum += callSession.stepCount;
+        stats.durationSum += callSession.duration;
+        stats.maxSteps = Math.max(stats.maxSteps, callSession.stepCount);
+        stats.maxDuration = Math.max(stats.maxDuration, callSession.duration);
+        stats.lastSessionId = Math.max(previousId, callSession.getId());
+        store(db, stats);
+    }
+
+    /**
+     * Remove a deleted session from the summary.
+     * Should be called within the same transaction the session is deleted in, after its
+     * {@link DailyStats} are updated.
+     *
+     * @param callSession Deleted call session
+     * @param id Id the call session had
+     */
+    static void removeSession(CallSession callSession, long id) {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        SummaryStats stats = load(db);
+        if (stats == null) {
+            return;
+        }
+
+        long lastId = queryLong(db, MAX_ID_SQL, null);
+        if (stats.lastSessionId != Math.max(lastId, id)) {
+            invalidate();
+            return;
+        }
+
+        stats.sessionCount--;
+        stats.stepSum -= callSession.stepCount;
+        stats.durationSum -= callSession.duration;
+        stats.lastSessionId = lastId;
+
+        if (callSession.stepCount >= stats.maxSteps
+                || callSession.duration >= stats.maxDuration) {
+            // max values can't be decremented, but the daily ones are up to date already
+            Cursor cursor = db.rawQuery("SELECT IFNULL(MAX(max_steps), 0), "
+                    + "IFNULL(MAX(max_duration), 0) FROM daily_stats", null);
+            try {
+                cursor.moveToFirst();
+                stats.maxSteps = cursor.getLong(0);
+                stats.maxDuration = cursor.getLong(1);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        store(db, stats);
+    }
+
+    /**
+     * Load the stored summary.
+     *
+     * @return Stored summary, or {@code null} if there is none, or its checksum doesn't match
+     */
+    private static SummaryStats load(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("SELECT session_count, step_sum, duration_sum, max_steps, "
+                + "max_duration, last_session_id, checksum FROM summary_stats WHERE Id = ?",
+                new String[] {String.valueOf(ROW_ID)});
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+
+            SummaryStats stats = new SummaryStats();
+            stats.sessionCount = cursor.getLong(0);
+            stats.stepSum = cursor.getLong(1);
+            stats.durationSum = cursor.getLong(2);
+            stats.maxSteps = cursor.getLong(3);
+            stats.maxDuration = cursor.getLong(4);
+            stats.lastSessionId = cursor.getLong(5);
+            stats.checksum = cursor.getLong(6);
+
+            if (stats.checksum != stats.computeChecksum()) {
+                DebugLog.w(TAG, "Checksum mismatch in " + stats);
+                return null;
+            }
+            return stats;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Load the stored summary, and check that it still covers exactly the stored sessions.
+     *
+     * @return Stored summary, or {@code null} if there is none, or it doesn't match
+     */
+    private static SummaryStats loadValid(SQLiteDatabase db) {
+        SummaryStats stats = load(db);
+        if (stats == null) {
+            return null;
+        }
+
+        Cursor cursor = db.rawQuery(VALIDATE_SQL, null);
+        try {
+            cursor.moveToFirst();
+            if (stats.lastSessionId == cursor.getLong(0)
+                    && stats.sessionCount == cursor.getLong(1)) {
+                return stats;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        DebugLog.w(TAG, "Stored summary doesn't match sessions: " + stats);
+        return null;
+    }
+
+    private static void store(SQLiteDatabase db, SummaryStats stats) {
+        stats.checksum = stats.computeChecksum();
+
+        SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO summary_stats "
+                + "(Id, session_count, step_sum, duration_sum, max_steps, max_duration, "
+                + "last_session_id, checksum) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        statement.bindLong(1, ROW_ID);
+        statement.bindLong(2, stats.sessionCount);
+        statement.bindLong(3, stats.stepSum);
+        statement.bindLong(4, stats.durationSum);
+        statement.bindLong(5, stats.maxSteps);
+        statement.bindLong(6, stats.maxDuration);
+        statement.bindLong(7, stats.lastSessionId);
+        statement.bindLong(8, stats.checksum);
+        statement.executeInsert();
+        statement.close();
+    }
+
+    private static long queryLong(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery(sql, args);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long computeChecksum() {
+        ByteBuffer buffer = ByteBuffer.allocate(6 * 8);
+        buffer.putLong(sessionCount)
+                .putLong(stepSum)
+                .putLong(durationSum)
+                .putLong(maxSteps)
+                .putLong(maxDuration)
+                .putLong(lastSessionId);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array());
+        return crc.getValue();
+    }
+
+    private SessionAggregate toAggregate() {
+        return new SessionAggregate(sessionCount, stepSum, durationSum, maxSteps, maxDuration);
+    }
+
+    @Override
+    public String toString() {
+        return "SummaryStats{" +
+                "sessionCount=" + sessionCount +
+                ", stepSum=" + stepSum +
+                ", durationSum=" + durationSum +
+                ", maxSteps=" + maxSteps +
+                ", maxDuration=" + maxDuration +
+                ", lastSessionId=" + lastSessionId +
+                '}';
+    }
+}
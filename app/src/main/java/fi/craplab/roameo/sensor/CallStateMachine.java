@@ -0,0 +1,161 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.sensor;
+
+/**
+ * Phone call state machine, turning the call state changes reported by the system's
+ * {@code PhoneStateListener} into call sessions.
+ *
+ * A session starts when the phone goes off-hook and ends when it's idle again. The system only
+ * reports the combined state of all calls, so a call put on hold or a waiting call that gets
+ * answered can't be told apart from the original call. Instead of splitting the session, any
+ * call ringing while already off-hook is reported as waiting call and counted, and the session
+ * continues until all calls ended.
+ *
+ * The state values are the same as the {@code TelephonyManager.CALL_STATE_*} constants, and the
+ * class itself doesn't depend on any Android classes, so it can be run on a plain JVM.
+ */
+class CallStateMachine {
+    /** Same as {@code TelephonyManager.CALL_STATE_IDLE} */
+    static final int CALL_STATE_IDLE = 0;
+    /** Same as {@code TelephonyManager.CALL_STATE_RINGING} */
+    static final int CALL_STATE_RINGING = 1;
+    /** Same as {@code TelephonyManager.CALL_STATE_OFFHOOK} */
+    static final int CALL_STATE_OFFHOOK = 2;
+
+    /** Internal state for a call ringing while already off-hook */
+    private static final int STATE_WAITING = 3;
+    /** Internal state before the first call state change was received */
+    private static final int STATE_UNKNOWN = -1;
+
+    /**
+     * Callback for call session changes.
+     */
+    interface Callback {
+        /**
+         * Called when a call session starts.
+         *
+         * @param incoming {@code true} if the call was incoming, {@code false} if it was outgoing
+         *                 or the direction is unknown
+         * @param phoneNumber Phone number if known, otherwise an empty string or {@code null}
+         */
+        void onSessionStart(boolean incoming, String phoneNumber);
+
+        /**
+         * Called when another call is ringing during an ongoing session.
+         *
+         * @param phoneNumber Phone number of the waiting call, if known
+         */
+        void onCallWaiting(String phoneNumber);
+
+        /**
+         * Called when all calls ended and the session is over.
+         */
+        void onSessionEnd();
+    }
+
+    private final Callback mCallback;
+
+    private int mState = STATE_UNKNOWN;
+    private String mRingingNumber;
+    private boolean mSessionActive = false;
+    private int mCallCount = 0;
+
+    CallStateMachine(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Handle a call state change.
+     *
+     * @param state New call state, one of the {@code CALL_STATE_*} values
+     * @param phoneNumber Phone number as received from the system
+     */
+    void onCallStateChanged(int state, String phoneNumber) {
+        switch (state) {
+            case CALL_STATE_RINGING:
+                if (mSessionActive) {
+                    if (mState != STATE_WAITING) {
+                        mState = STATE_WAITING;
+                        mCallCount++;
+                        mCallback.onCallWaiting(phoneNumber);
+                    }
+                } else {
+                    mState = CALL_STATE_RINGING;
+                    mRingingNumber = phoneNumber;
+                }
+                break;
+
+            case CALL_STATE_OFFHOOK:
+                if (!mSessionActive) {
+                    /*
+                     * Off-hook straight from idle is an outgoing call. Receiving it as very
+                     * first state means the service was (re)started during a call, in which
+                     * case the direction is unknown and counted as outgoing.
+                     */
+                    boolean incoming = (mState == CALL_STATE_RINGING);
+                    String number = (incoming && isEmpty(phoneNumber)) ? mRingingNumber : phoneNumber;
+
+                    mSessionActive = true;
+                    mCallCount = 1;
+                    mCallback.onSessionStart(incoming, number);
+                }
+                // a waiting call was answered or rejected, the session goes on either way
+                mState = CALL_STATE_OFFHOOK;
+                mRingingNumber = null;
+                break;
+
+            case CALL_STATE_IDLE:
+                // also covers missed and rejected calls, which simply never went off-hook
+                mState = CALL_STATE_IDLE;
+                mRingingNumber = null;
+                if (mSessionActive) {
+                    mSessionActive = false;
+                    mCallback.onSessionEnd();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Check if a call session is currently ongoing.
+     *
+     * @return {@code true} if a session is ongoing
+     */
+    boolean isSessionActive() {
+        return mSessionActive;
+    }
+
+    /**
+     * Get the number of calls within the ongoing or last session, including waiting calls.
+     *
+     * @return Number of calls
+     */
+    int getCallCount() {
+        return mCallCount;
+    }
+
+    private static boolean isEmpty(String string) {
+        return string == null || string.length() == 0;
+    }
+}
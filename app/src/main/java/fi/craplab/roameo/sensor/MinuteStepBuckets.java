@@ -0,0 +1,130 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+import java.util.Arrays;
+
+/**
+ * Per-minute step counts of an ongoing call session, updated as each step counter event arrives.
+ *
+ * Steps are stored in a primitive array indexed by the call's minute, so adding an event is a
+ * simple array update, and memory only depends on the call duration (4 bytes per minute), not
+ * on the number of counted steps. The array is preallocated for a two hour call and only grows
+ * if a call takes longer than that.
+ */
+class MinuteStepBuckets {
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+    /** Initial capacity in minutes */
+    private static final int DEFAULT_CAPACITY = 120;
+
+    private int[] mSteps;
+    private int mMinuteCount = 0;
+
+    MinuteStepBuckets() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    MinuteStepBuckets(int capacity) {
+        mSteps = new int[capacity];
+    }
+
+    /**
+     * Add steps to the minute the given time offset falls into.
+     *
+     * @param timestamp Event time offset from session start in milliseconds
+     * @param steps Number of steps to add
+     */
+    void add(long timestamp, int steps) {
+        int minute = (int) (timestamp / MILLIS_PER_MINUTE);
+
+        if (minute >= mSteps.length) {
+            mSteps = Arrays.copyOf(mSteps, Math.max(mSteps.length * 2, minute + 1));
+        }
+
+        mSteps[minute] += steps;
+
+        if (minute >= mMinuteCount) {
+            mMinuteCount = minute + 1;
+        }
+    }
+
+    /**
+     * Get the number of minutes up until the last minute with steps.
+     *
+     * @return Number of minutes covered so far
+     */
+    int getMinuteCount() {
+        return mMinuteCount;
+    }
+
+    /**
+     * Get the number of steps counted within the given minute.
+     *
+     * @param minute Call minute, starting at zero
+     * @return Step count of that minute
+     */
+    int getSteps(int minute) {
+        return (minute < mMinuteCount) ? mSteps[minute] : 0;
+    }
+
+    /**
+     * Get the number of minutes with at least one step.
+     *
+     * @return Number of minutes with steps
+     */
+    int getStepMinuteCount() {
+        int count = 0;
+        for (int minute = 0; minute < mMinuteCount; minute++) {
+            if (mSteps[minute] != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copy all minutes with at least one step into the given arrays, both sized to hold
+     * {@link #getStepMinuteCount()} entries.
+     *
+     * @param minutes Array to store the minutes in
+     * @param steps Array to store each minute's steps in
+     */
+    void copyStepMinutes(int[] minutes, int[] steps) {
+        int index = 0;
+        for (int minute = 0; minute < mMinuteCount; minute++) {
+            if (mSteps[minute] != 0) {
+                minutes[index] = minute;
+                steps[index] = mSteps[minute];
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Clear all minutes, keeping the already allocated array.
+     */
+    void clear() {
+        Arrays.fill(mSteps, 0, mMinuteCount, 0);
+        mMinuteCount = 0;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+/**
+ * Real-time notification of the ongoing call's step count.
+ *
+ * Step counter events can arrive several times a second, or in bursts if they are batched.
+ * Instead of rebuilding and posting a notification for each of them, updates are coalesced
+ * to at most one per configured interval, only posting the latest step count. The notification
+ * builder is set up once per session, its large icon is decoded only once for all sessions,
+ * and nothing is posted if the displayed step count didn't change.
+ *
+ * The actual notification and the delayed updates are handled through the {@link Display}
+ * and {@link Scheduler} interfaces, so the coalescing doesn't depend on any Android classes
+ * and can be tested on a plain JVM.
+ *
+ * @param <I> Large icon type, i.e. {@code Bitmap} on Android
+ */
+class OngoingNotificationUpdater<I> {
+    /**
+     * The notification itself, see {@link SensorNotification.OngoingDisplay}.
+     *
+     * @param <I> Large icon type
+     */
+    interface Display<I> {
+        /**
+         * Decode the large icon of the notifications.
+         *
+         * @return Large icon
+         */
+        I decodeLargeIcon();
+
+        /**
+         * Set up the notification for a new call session, i.e. its builder.
+         *
+         * @param startTime Call start time
+         * @param largeIcon Large icon, as returned by {@link #decodeLargeIcon()}
+         */
+        void prepare(long startTime, I largeIcon);
+
+        /**
+         * Post the notification with the given step count.
+         *
+         * @param steps Current step count
+         */
+        void show(int steps);
+    }
+
+    /**
+     * Clock and delayed execution, i.e. a {@code Handler} and {@code SystemClock} on Android.
+     */
+    interface Scheduler {
+        /** @return Monotonic time in milliseconds */
+        long now();
+
+        void postDelayed(Runnable runnable, long delayMs);
+
+        void removeCallbacks(Runnable runnable);
+    }
+
+    private final Display<I> mDisplay;
+    private final Scheduler mScheduler;
+
+    private I mLargeIcon;
+    private long mMinIntervalMs = 0;
+    private boolean mStarted = false;
+    private int mPendingSteps = 0;
+    private int mShownSteps = -1;
+    private long mLastUpdateTime = 0;
+    private boolean mUpdateScheduled = false;
+
+    /**
+     * Create a new notification updater.
+     *
+     * @param display Notification to update
+     * @param scheduler Scheduler to post delayed updates to
+     */
+    OngoingNotificationUpdater(Display<I> display, Scheduler scheduler) {
+        mDisplay = display;
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Get the large icon of the notifications, decoding it the first time it's needed.
+     * Also meant for the final notification after the call.
+     *
+     * @return Large icon
+     */
+    I getLargeIcon() {
+        if (mLargeIcon == null) {
+            mLargeIcon = mDisplay.decodeLargeIcon();
+        }
+        return mLargeIcon;
+    }
+
+    /**
+     * Prepare the notification for a new call session.
+     *
+     * @param startTime Call start time
+     * @param minIntervalMs Minimum time between two notification updates in milliseconds
+     */
+    void start(long startTime, long minIntervalMs) {
+        stop();
+        mDisplay.prepare(startTime, getLargeIcon());
+        mMinIntervalMs = minIntervalMs;
+        mStarted = true;
+        mPendingSteps = 0;
+        mShownSteps = -1;
+        mLastUpdateTime = 0;
+    }
+
+    /**
+     * Update the notification with the current step count, either right away or once the
+     * minimum update interval has passed.
+     *
+     * @param steps Current step count
+     */
+    void update(int steps) {
+        mPendingSteps = steps;
+
+        if (!mStarted || mUpdateScheduled) {
+            // not started, or the latest value gets picked up by the scheduled update anyway
+            return;
+        }
+
+        long delay = mLastUpdateTime + mMinIntervalMs - mScheduler.now();
+        if (delay <= 0) {
+            publish();
+        } else {
+            mUpdateScheduled = true;
+            mScheduler.postDelayed(mPublishRunnable, delay);
+        }
+    }
+
+    /**
+     * Drop any scheduled update, i.e. when the call ended and the final notification follows.
+     */
+    void stop() {
+        mScheduler.removeCallbacks(mPublishRunnable);
+        mUpdateScheduled = false;
+        mStarted = false;
+    }
+
+    private void publish() {
+        mUpdateScheduled = false;
+
+        if (!mStarted || mPendingSteps == mShownSteps) {
+            return;
+        }
+
+        mDisplay.show(mPendingSteps);
+
+        mShownSteps = mPendingSteps;
+        mLastUpdateTime = mScheduler.now();
+    }
+
+    private final Runnable mPublishRunnable = new Runnable() {
+        @Override
+        public void run() {
+            publish();
+        }
+    };
+}
@@ -27,6 +27,7 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.Resources;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.support.v4.app.NotificationCompat;
 
@@ -59,33 +60,18 @@ class SensorNotification {
         sTagId = id;
     }
 
-    /**
-     * Show notification about ongoing call.
-     * Displays the current step count and call start time in the notification bar.
-     *
-     * @param context Context
-     * @param startTime Call start time string
-     * @param steps Current step count
-     */
-    static void notifyOngoing(final Context context, final long startTime, final int steps) {
-        NotificationCompat.Builder builder = getCommonBuilder(context);
-        builder.setContentTitle(context.getString(R.string.notify_title_ongoing));
-        String stepString = context.getResources().getQuantityString(R.plurals.steps, steps, steps);
-        builder.setContentText(context.getString(R.string.notify_details_ongoing,
-                stepString, Utils.millisToDateTimeString(startTime)));
-        sendNotification(context, builder.build());
-    }
-
     /**
      * Show notification of call summary after it ended.
      *
      * @param context Context
      * @param callSession Stored {@link CallSession}
+     * @param largeIcon Large icon, see {@link OngoingNotificationUpdater#getLargeIcon()}
      */
-    static void notifyFinal(final Context context, final CallSession callSession) {
+    static void notifyFinal(final Context context, final CallSession callSession,
+                            final Bitmap largeIcon) {
         DebugLog.d(TAG, "Notification for CallSession " + callSession);
         final Resources res = context.getResources();
-        NotificationCompat.Builder builder = getCommonBuilder(context);
+        NotificationCompat.Builder builder = getCommonBuilder(context, largeIcon);
 
         if (callSession.getId() != null) {
             builder.setContentIntent(getDetailsIntent(context, callSession.getId()));
@@ -123,22 +109,61 @@ class SensorNotification {
 
     /**
      * Create a common {@link NotificationCompat.Builder} for either type of notification.
+     * Ongoing call notifications are handled by {@link OngoingNotificationUpdater}.
      *
      * @param context Context
+     * @param largeIcon Large icon
      * @return Common builder
      */
-    private static NotificationCompat.Builder getCommonBuilder(final Context context) {
+    private static NotificationCompat.Builder getCommonBuilder(final Context context,
+                                                               final Bitmap largeIcon) {
         return new NotificationCompat.Builder(context)
                 // set all defaults to no light, sound or vibration and nullify alert sound
                 .setDefaults(0)
                 .setSound(null)
                 // set icons
                 .setSmallIcon(R.drawable.ic_roameo)
-                .setLargeIcon(BitmapFactory.decodeResource(context.getResources(), R.mipmap.roameo_circle))
+                .setLargeIcon(largeIcon)
                 // set auto dismiss on touch
                 .setAutoCancel(true);
     }
 
+    /**
+     * Real-time notification of the ongoing call's step count, updated through
+     * {@link OngoingNotificationUpdater}.
+     */
+    static class OngoingDisplay implements OngoingNotificationUpdater.Display<Bitmap> {
+        private final Context mContext;
+
+        private NotificationCompat.Builder mBuilder;
+        private String mStartTimeString;
+
+        OngoingDisplay(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public Bitmap decodeLargeIcon() {
+            return BitmapFactory.decodeResource(mContext.getResources(), R.mipmap.roameo_circle);
+        }
+
+        @Override
+        public void prepare(long startTime, Bitmap largeIcon) {
+            mBuilder = getCommonBuilder(mContext, largeIcon)
+                    .setContentTitle(mContext.getString(R.string.notify_title_ongoing));
+            mStartTimeString = Utils.millisToDateTimeString(startTime);
+        }
+
+        @Override
+        public void show(int steps) {
+            String stepString = mContext.getResources().getQuantityString(
+                    R.plurals.steps, steps, steps);
+            mBuilder.setContentText(mContext.getString(
+                    R.string.notify_details_ongoing, stepString, mStartTimeString));
+            sendNotification(mContext, mBuilder.build());
+        }
+    }
+
     private static PendingIntent getDetailsIntent(Context context, long id) {
         Intent intent = new Intent(context, SessionDetailsActivity.class);
         intent.putExtra(DetailsDataFragment.ARG_SECTION_NUMBER, id);
@@ -24,53 +24,107 @@ package fi.craplab.roameo.sensor;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.graphics.Bitmap;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.PowerManager;
-import android.preference.PreferenceManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.telephony.PhoneStateListener;
 import android.telephony.TelephonyManager;
-import android.util.SparseIntArray;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 
 import fi.craplab.roameo.RoameoEvents;
 import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.DatabaseWriter;
 import fi.craplab.roameo.model.MinuteSteps;
 import fi.craplab.roameo.ui.SettingsActivity;
 import fi.craplab.roameo.util.DebugLog;
+import fi.craplab.roameo.util.Utils;
 
 /**
  * Sensor service to handle step count sensors during ongoing calls.
  *
+ * If enabled in the settings, step counter events are batched in the sensor's hardware FIFO
+ * and delivered in bursts, so the CPU doesn't need to wake up for every single step. Each
+ * event is therefore attributed to the time stored in {@link SensorEvent#timestamp}, and not
+ * to the time it was delivered.
+ *
+ * Between calls, the step counter stays registered with a long report latency to keep track of
+ * the last known counter value, so a new session can start counting from a known offset right
+ * away, instead of losing the steps walked until the first event arrives. As the step counter
+ * isn't a wake-up sensor, this doesn't wake up the CPU, events simply pile up in the FIFO and are
+ * delivered whenever it's awake anyway, or at the latest after the report latency. The number
+ * of events delivered between calls is logged at the start of each session.
+ *
+ * Phone call handling itself is done in {@link CallStateMachine}, which decides when a call
+ * session starts and ends.
+ *
+ * Sensor events and call state changes are received on a dedicated background thread, which
+ * also handles storing the call session to the database. Only the final data update broadcast
+ * is posted back to the main thread.
+ *
  * NOTE: Sensor.TYPE_STEP_COUNTER requires min API 19
  */
-/*
- * TODO consider splitting sensor and phone call handling in separate files?
- */
-public class SensorService extends Service implements SensorEventListener {
+public class SensorService extends Service implements SensorEventListener2 {
     private static final String TAG = SensorService.class.getSimpleName();
 
+    /** Max time to wait for batched events to be flushed from the FIFO after a call ended */
+    private static final long FLUSH_TIMEOUT_MS = 2000;
+    /** Max report latency of the step counter between calls, in microseconds */
+    private static final int BASELINE_REPORT_LATENCY_US = 5 * 60 * 1000000;
+    /** Min time between two baseline events to count them as separate deliveries */
+    private static final long BASELINE_BATCH_GAP_MS = 1000;
+    /** Number of baseline deliveries to see before checking their rate */
+    private static final int BASELINE_MIN_BATCHES = 10;
+    /** Min average time between baseline deliveries, more frequent ones drop the listener */
+    private static final long BASELINE_MIN_BATCH_INTERVAL_MS = 60 * 1000;
+    private static final int NO_VALUE = -1;
+
     private SensorManager mSensorManager;
     private Sensor mStepCounter;
 
     private PowerManager.WakeLock mWakeLock;
 
     private boolean mCountStarted = false;
-    private int mCounterOffset = -1;
-    private int mLastCounterValue = -1;
     private long mStartTime = 0;
-    private boolean mCallIncoming = false;
+    private long mStopTime = 0;
+    private boolean mFlushPending = false;
+    private boolean mStartFlushPending = false;
+    private boolean mBaselineRegistered = false;
+    private int mBaselineValue = NO_VALUE;
+    private int mBaselineEventCount = 0;
+    private long mBaselineSince = 0;
+    private int mBaselineBatchCount = 0;
+    private long mBaselineLastEvent = 0;
+    private int mNotifyMode = SettingsActivity.NOTIFICATION_MODE_OFF;
     private CallSession mCallSession;
 
-    private final SparseIntArray mTimestampList = new SparseIntArray();
-    private SharedPreferences mSharedPrefs;
+    private HandlerThread mWorkerThread;
+    private Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private PhoneStateListener mPhoneStateListener;
+    private final CallStateMachine mCallStateMachine = new CallStateMachine(new CallSessionHandler());
+    private OngoingNotificationUpdater<Bitmap> mOngoingNotification;
+
+    private final MinuteStepBuckets mMinuteSteps = new MinuteStepBuckets();
+    private final StepCountTracker mStepTracker = new StepCountTracker(mMinuteSteps);
+    private SensorTraceRecorder mTraceRecorder;
+    private SessionJournal mJournal;
+    private StepCounterHandler mStepCounterHandler;
 
     public SensorService() {
     }
@@ -78,12 +132,43 @@ public class SensorService extends Service implements SensorEventListener {
     @Override
     public void onCreate() {
         DebugLog.d(TAG, "onCreate()");
-        mSharedPrefs = PreferenceManager.getDefaultSharedPreferences(this);
+        mWorkerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        mWorkerThread.start();
+        mHandler = new Handler(mWorkerThread.getLooper());
+
+        mJournal = new SessionJournal(getFilesDir());
+        mOngoingNotification = new OngoingNotificationUpdater<>(
+                new SensorNotification.OngoingDisplay(this),
+                new OngoingNotificationUpdater.Scheduler() {
+                    @Override
+                    public long now() {
+                        return SystemClock.elapsedRealtime();
+                    }
+
+                    @Override
+                    public void postDelayed(Runnable runnable, long delayMs) {
+                        mHandler.postDelayed(runnable, delayMs);
+                    }
+
+                    @Override
+                    public void removeCallbacks(Runnable runnable) {
+                        mHandler.removeCallbacks(runnable);
+                    }
+                });
+        mStepCounterHandler = new StepCounterHandler(mStepTracker, mJournal, mOngoingNotification);
         setupStepCounter();
-        setupTelephonyHandler();
 
         PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         mWakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "RoameoSensor");
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                recoverJournal();
+                registerBaseline();
+                setupTelephonyHandler();
+            }
+        });
     }
 
     @Override
@@ -101,16 +186,37 @@ public class SensorService extends Service implements SensorEventListener {
     @Override
     public void onDestroy() {
         DebugLog.d(TAG, "onDestroy()");
-        if (mSensorManager != null) {
-            mSensorManager.unregisterListener(this);
-        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPhoneStateListener != null) {
+                    TelephonyManager telMan =
+                            (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
+                    telMan.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
+                }
 
-        TelephonyManager telMan = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-        telMan.listen(mPhoneStateListener, PhoneStateListener.LISTEN_NONE);
+                mHandler.removeCallbacks(mStartFlushTimeout);
+                if (mFlushPending) {
+                    mHandler.removeCallbacks(mFlushTimeout);
+                    finishCounting();
+                }
 
-        if (mWakeLock.isHeld()) {
-            mWakeLock.release();
-        }
+                // after finishing, which registers the step counter between calls again
+                if (mSensorManager != null) {
+                    mSensorManager.unregisterListener(SensorService.this);
+                }
+                mBaselineRegistered = false;
+                mOngoingNotification.stop();
+                closeTraceRecorder();
+
+                if (mWakeLock.isHeld()) {
+                    mWakeLock.release();
+                }
+            }
+        });
+
+        // finishes cleanup and anything else still queued before the thread ends
+        mWorkerThread.quitSafely();
     }
 
     private void setupStepCounter() {
@@ -123,51 +229,103 @@ public class SensorService extends Service implements SensorEventListener {
         }
     }
 
+    /**
+     * Register the step counter with a long report latency to keep track of the counter value
+     * between calls. Skipped if the step counter is a wake-up sensor, as that would wake up the
+     * CPU for each batch of events.
+     */
+    private void registerBaseline() {
+        if (mStepCounter == null || mBaselineRegistered) {
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mStepCounter.isWakeUpSensor()) {
+            DebugLog.i(TAG, "Step counter is a wake-up sensor, not tracking it between calls");
+            return;
+        }
+
+        mBaselineRegistered = mSensorManager.registerListener(this, mStepCounter,
+                SensorManager.SENSOR_DELAY_NORMAL, BASELINE_REPORT_LATENCY_US, mHandler);
+        mBaselineEventCount = 0;
+        mBaselineBatchCount = 0;
+        mBaselineSince = SystemClock.elapsedRealtime();
+        mBaselineLastEvent = 0;
+    }
+
+    /**
+     * Count the deliveries of batched step counter events between calls, each one meaning the
+     * CPU was awake for it, and drop the listener until after the next call if they come in
+     * more often than the report latency is meant to allow.
+     */
+    private void countBaselineBatch() {
+        long now = SystemClock.elapsedRealtime();
+        boolean newBatch = now - mBaselineLastEvent > BASELINE_BATCH_GAP_MS;
+        mBaselineLastEvent = now;
+
+        if (!newBatch) {
+            return;
+        }
+
+        mBaselineBatchCount++;
+        if (mBaselineBatchCount >= BASELINE_MIN_BATCHES
+                && now - mBaselineSince < mBaselineBatchCount * BASELINE_MIN_BATCH_INTERVAL_MS) {
+            DebugLog.w(TAG, String.format(Locale.US,
+                    "%d step counter deliveries between calls in %d s, unregistering",
+                    mBaselineBatchCount, (now - mBaselineSince) / 1000));
+            mSensorManager.unregisterListener(this);
+            mBaselineRegistered = false;
+            mBaselineValue = NO_VALUE;
+        }
+    }
+
+    /**
+     * Register the phone state listener.
+     * Must be called on the worker thread, as {@link PhoneStateListener} delivers its callbacks
+     * to the {@link Looper} of the thread it was created on.
+     */
     private void setupTelephonyHandler() {
+        mPhoneStateListener = new CallStateListener();
         TelephonyManager telMan = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
         telMan.listen(mPhoneStateListener, PhoneStateListener.LISTEN_CALL_STATE);
     }
 
+    /*
+     * NOTE: this is called for every counted step during a call, so make sure nothing in here
+     * allocates memory, including building debug log messages that might not even be printed.
+     */
     @Override
     public void onSensorChanged(SensorEvent event) {
         if (event.sensor.getType() == Sensor.TYPE_STEP_COUNTER) {
+            int counterValue = (int) event.values[0];
+
             if (!mCountStarted) {
-                DebugLog.w(TAG, "step counter sensor event, but counting hasn't started");
+                // between calls, just remember the value for the next session
+                mStepCounterHandler.trace(event.timestamp, counterValue);
+                mBaselineValue = counterValue;
+                mBaselineEventCount++;
+                countBaselineBatch();
                 return;
             }
 
-            int counterValue = (int) event.values[0];
+            /*
+             * Batched events are delivered in bursts, so use the time the step was actually
+             * counted, not the time it arrived here. Events stored in the FIFO just before the
+             * session started only move the counter offset closer to the session start.
+             */
+            long timestamp = Utils.getSensorTimestamp(event.timestamp) - mCallSession.timestamp;
+            int delta = mStepCounterHandler.onStepCounter(event.timestamp, counterValue, timestamp);
 
-            if (counterValue == mLastCounterValue) {
-                // ignore multiple reports of same counter value (might happen every now and then)
+            if (delta == 0) {
                 return;
             }
 
-            if (mCounterOffset == -1) {
-                /*
-                 * First step count event in this session.
-                 * This is triggered after registering the sensor listener and contains the
-                 * previous step count information. Using the step count value to initialize
-                 * this session's counter offset and return - this is invalid data otherwise.
-                 */
-                mCounterOffset = counterValue;
-                mLastCounterValue = counterValue;
-                return;
+            int relativeValue = mStepTracker.getStepCount();
+            if (DebugLog.isEnabled()) {
+                DebugLog.d(TAG, String.format(Locale.US, "%8d  %5d  %3d  delta %d", timestamp,
+                        counterValue, relativeValue, delta));
             }
 
-            int relativeValue = counterValue - mCounterOffset;
-            long timestamp = System.currentTimeMillis() - mCallSession.timestamp;
-            DebugLog.d(TAG, String.format(Locale.US, "%8d  %5d  %3d  delta %d",
-                    timestamp, counterValue, relativeValue, (counterValue - mLastCounterValue)));
-
-            mTimestampList.append((int) timestamp, counterValue - mLastCounterValue);
-
-            mLastCounterValue = counterValue;
-
-            int notifyMode = SettingsActivity.showNotificationMode(this);
-            if (relativeValue > 0 && notifyMode == SettingsActivity.NOTIFICATION_MODE_REAL_TIME) {
-                SensorNotification.notifyOngoing(this, mStartTime, relativeValue);
-            } else if (relativeValue <= 0){
+            if (relativeValue <= 0) {
                 // XXX this shouldn't happen anymore[TM]
                 DebugLog.w(TAG, "relativeValue is " + relativeValue);
             }
@@ -179,17 +337,65 @@ public class SensorService extends Service implements SensorEventListener {
         // required by SensorEventListener, but we don't have use for this with our step counter.
     }
 
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        if (mStartFlushPending) {
+            // flush requested at session start, all events from before the call are delivered
+            mStartFlushPending = false;
+            mHandler.removeCallbacks(mStartFlushTimeout);
+            if (!mFlushPending) {
+                // otherwise the call is already over, keep the listener for the second flush
+                registerCounting();
+            }
+            return;
+        }
+
+        if (mFlushPending) {
+            DebugLog.d(TAG, "Step counter FIFO flushed");
+            mHandler.removeCallbacks(mFlushTimeout);
+            finishCounting();
+        }
+    }
+
+    private final Runnable mFlushTimeout = new Runnable() {
+        @Override
+        public void run() {
+            DebugLog.w(TAG, "Step counter FIFO flush timed out");
+            finishCounting();
+        }
+    };
+
+    private final Runnable mStartFlushTimeout = new Runnable() {
+        @Override
+        public void run() {
+            DebugLog.w(TAG, "Step counter FIFO flush at session start timed out");
+            mStartFlushPending = false;
+            registerCounting();
+        }
+    };
+
     public boolean hasSensor() {
         return mStepCounter != null;
     }
 
     private void startCounting() {
+        if (mFlushPending) {
+            // new call right after the previous one, don't wait for the flush any longer
+            mHandler.removeCallbacks(mFlushTimeout);
+            finishCounting();
+        }
+
         mWakeLock.acquire();
-        // register step counter sensor listener
-        mSensorManager.registerListener(this, mStepCounter, SensorManager.SENSOR_DELAY_FASTEST);
+        if (mBaselineRegistered) {
+            DebugLog.d(TAG, String.format(Locale.US,
+                    "%d step counter events in %d deliveries between calls in %d s",
+                    mBaselineEventCount, mBaselineBatchCount,
+                    (SystemClock.elapsedRealtime() - mBaselineSince) / 1000));
+        }
 
         // set new notification id or clear previous one, depending on settings.
-        if (SettingsActivity.showNotificationMode(this) != SettingsActivity.NOTIFICATION_MODE_OFF) {
+        mNotifyMode = SettingsActivity.showNotificationMode(this);
+        if (mNotifyMode != SettingsActivity.NOTIFICATION_MODE_OFF) {
             if (SettingsActivity.keepNotifications(this)) {
                 SensorNotification.setId((int) (System.currentTimeMillis() / 1000));
             } else {
@@ -197,31 +403,112 @@ public class SensorService extends Service implements SensorEventListener {
             }
         }
 
-        // clear and reset all internal data
-        mTimestampList.clear();
+        if (!mBaselineRegistered) {
+            /*
+             * Nothing kept track of the counter since the last call, so its final value is
+             * outdated by whatever was walked in between. Take the first value of this session
+             * as offset instead. With the baseline listener registered, anything counted since
+             * its last event is flushed from the FIFO below and moves the offset up to date.
+             */
+            mBaselineValue = NO_VALUE;
+        }
+
+        // clear and reset all internal data, starting from the last value known between calls
+        mStepTracker.reset(mBaselineValue);
         mCallSession = new CallSession();
         mCallSession.timestamp = System.currentTimeMillis();
-        mCounterOffset = -1;
-        mLastCounterValue = -1;
         mStartTime = mCallSession.timestamp;
         mCountStarted = true;
+
+        if (mNotifyMode == SettingsActivity.NOTIFICATION_MODE_REAL_TIME) {
+            mOngoingNotification.start(mStartTime,
+                    SettingsActivity.notificationUpdateInterval(this) * 1000L);
+        }
+        mStepCounterHandler.setRealTimeNotification(
+                mNotifyMode == SettingsActivity.NOTIFICATION_MODE_REAL_TIME);
+
+        mJournal.begin(mCallSession.timestamp, getBootTime());
+        if (mStepTracker.hasCounterOffset()) {
+            mJournal.setCounterOffset(mStepTracker.getCounterOffset());
+        }
+
+        /*
+         * Unregistering the baseline listener drops whatever it still has batched in the FIFO,
+         * so flush it first and only switch to the listener for the call once that completed.
+         * Those events arrive with mCountStarted already set and only move the offset.
+         */
+        if (mBaselineRegistered) {
+            mBaselineRegistered = false;
+            mStartFlushPending = mSensorManager.flush(this);
+        }
+
+        if (mStartFlushPending) {
+            mHandler.postDelayed(mStartFlushTimeout, FLUSH_TIMEOUT_MS);
+        } else {
+            registerCounting();
+        }
+    }
+
+    /**
+     * Replace the listener between calls by the one for the ongoing call, batching events in
+     * the FIFO if enabled.
+     */
+    private void registerCounting() {
+        mSensorManager.unregisterListener(this);
+        int maxReportLatencyUs = SettingsActivity.sensorBatchLatency(this) * 1000000;
+        mSensorManager.registerListener(this, mStepCounter,
+                SensorManager.SENSOR_DELAY_FASTEST, maxReportLatencyUs, mHandler);
     }
 
     private void stopCounting() {
+        if (mFlushPending) {
+            // already waiting for the FIFO flush to finish
+            return;
+        }
+
+        if (!mCountStarted) {
+            finishCounting();
+            return;
+        }
+
+        mStopTime = System.currentTimeMillis();
+
+        /*
+         * Steps walked right before hanging up might still sit in the sensor's FIFO.
+         * Request to flush it, and finish counting once all events are delivered.
+         */
+        if (SettingsActivity.sensorBatchLatency(this) > 0 && mSensorManager.flush(this)) {
+            mFlushPending = true;
+            mHandler.postDelayed(mFlushTimeout, FLUSH_TIMEOUT_MS);
+        } else {
+            finishCounting();
+        }
+    }
+
+    private void finishCounting() {
+        mFlushPending = false;
+
         if (mCountStarted) {
             mSensorManager.unregisterListener(this);
+            mHandler.removeCallbacks(mStartFlushTimeout);
+            mStartFlushPending = false;
+            if (mStepTracker.getCounterValue() != NO_VALUE) {
+                mBaselineValue = mStepTracker.getCounterValue();
+            }
+            mOngoingNotification.stop();
             if (saveCallSession()) {
-                saveTimestampList();
-                RoameoEvents.send(this, RoameoEvents.ACTION_CALL_DATA_UPDATED);
+                sendEvent(RoameoEvents.ACTION_CALL_DATA_UPDATED);
 
                 if (SettingsActivity.showNotificationMode(this)
                         != SettingsActivity.NOTIFICATION_MODE_OFF) {
-                    SensorNotification.notifyFinal(this, mCallSession);
+                    SensorNotification.notifyFinal(this, mCallSession,
+                            mOngoingNotification.getLargeIcon());
                 }
             }
         }
-        mCallIncoming = false;
+        mJournal.discard();
         mCountStarted = false;
+        registerBaseline();
         if (mWakeLock.isHeld()) {
             mWakeLock.release();
         }
@@ -229,18 +516,18 @@ public class SensorService extends Service implements SensorEventListener {
 
     private boolean saveCallSession() {
         boolean storeSession = true;
-        long stepCount = mLastCounterValue - mCounterOffset;
+        long stepCount = mStepTracker.getStepCount();
 
         if (stepCount == 0) {
             // Check if empty counts should be stored.
-            storeSession = mSharedPrefs.getBoolean(SettingsActivity.STORE_EMPTY_COUNTS, false);
+            storeSession = SettingsActivity.storeEmptyCounts(this);
             DebugLog.d(TAG, "Session without steps, keep it: " + storeSession);
         }
 
         if (storeSession) {
-            mCallSession.duration = System.currentTimeMillis() - mCallSession.timestamp;
+            mCallSession.duration = mStopTime - mCallSession.timestamp;
             mCallSession.stepCount = stepCount;
-            long id = mCallSession.save();
+            long id = saveSession(mCallSession, mMinuteSteps);
             DebugLog.d(TAG, "Inserted session " + mCallSession + " to db, id " + id);
             return true;
 
@@ -251,45 +538,78 @@ public class SensorService extends Service implements SensorEventListener {
         return false;
     }
 
-    private void saveTimestampList() {
-        SparseIntArray minutesList = new SparseIntArray();
-
-        int sum = 0;
-        int previousMinute = 0;
-
-        for (int index = 0; index < mTimestampList.size(); index++) {
-            int seconds = mTimestampList.keyAt(index) / 1000;
-            int minute = seconds / 60;
-
-            if (minute != previousMinute) {
-                //DebugLog.d(TAG, String.format(Locale.US, "storing %d steps to minute %d", sum, previousMinute));
-                minutesList.append(previousMinute, sum);
-                sum = 0;
+    /**
+     * Store a call session together with all its minutes with steps.
+     *
+     * Waits for the {@link DatabaseWriter} to finish, so the session is guaranteed to be stored
+     * before its journal gets discarded.
+     *
+     * @param callSession Call session to store
+     * @param minuteStepBuckets Steps per minute of the call session
+     * @return Call session id
+     */
+    private long saveSession(final CallSession callSession,
+                             MinuteStepBuckets minuteStepBuckets) {
+        // only minutes with steps are stored, SessionCruncher fills the gaps when reading
+        final int count = minuteStepBuckets.getStepMinuteCount();
+        final int[] minutes = new int[count];
+        final int[] steps = new int[count];
+        minuteStepBuckets.copyStepMinutes(minutes, steps);
+        final boolean packed = SettingsActivity.compactMinuteStorage(this);
+
+        long id = DatabaseWriter.call(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return MinuteSteps.saveAll(callSession, minutes, steps, packed);
             }
+        });
+        DebugLog.d(TAG, String.format(Locale.US, "Stored %d MinuteSteps entries for CallSession %d",
+                count, id));
+        return id;
+    }
 
-            sum += mTimestampList.valueAt(index);
-            //DebugLog.d(TAG, String.format(Locale.US, "adding %d steps to minute %d, now %d", mTimestampList.valueAt(index), minute, sum));
-            previousMinute = minute;
+    /**
+     * Store the session left behind in the journal if the process was killed during a call.
+     */
+    private void recoverJournal() {
+        CallSession callSession = new CallSession();
+        MinuteStepBuckets minuteStepBuckets = new MinuteStepBuckets();
+
+        if (mJournal.replay(callSession, minuteStepBuckets)) {
+            // until the step counter is registered again, that's the last value known
+            mBaselineValue = mJournal.getReplayedCounterValue(getBootTime());
+
+            if (callSession.stepCount > 0) {
+                long id = saveSession(callSession, minuteStepBuckets);
+                DebugLog.i(TAG, "Recovered interrupted session " + callSession + ", id " + id);
+                sendEvent(RoameoEvents.ACTION_CALL_DATA_UPDATED);
+            }
         }
 
-        if (sum > 0) {
-            //DebugLog.d(TAG, String.format(Locale.US, "storing final %d steps to last minute %d", sum, previousMinute));
-            minutesList.append(previousMinute, sum);
-        }
+        mJournal.discard();
+    }
 
-        for (int index = 0; index < minutesList.size(); index++) {
-            int minute = minutesList.keyAt(index);
-            int steps  = minutesList.valueAt(index);
-            //DebugLog.d(TAG, String.format(Locale.US, "minute %3d: %3d", minute, steps));
-            MinuteSteps minuteSteps = new MinuteSteps();
-            minuteSteps.callSession = mCallSession;
-            minuteSteps.minute = minute;
-            minuteSteps.steps = steps;
-            minuteSteps.save();
-        }
+    /**
+     * Get the time the device booted, i.e. since when the step counter counts.
+     *
+     * @return Boot time as UNIX timestamp in milliseconds
+     */
+    private static long getBootTime() {
+        return System.currentTimeMillis() - SystemClock.elapsedRealtime();
+    }
 
-        DebugLog.d(TAG, String.format(Locale.US, "Stored %d MinuteSteps entries for CallSession %d",
-                minutesList.size(), mCallSession.getId()));
+    /**
+     * Send a {@link RoameoEvents} broadcast from the main thread.
+     *
+     * @param action Event action
+     */
+    private void sendEvent(final String action) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                RoameoEvents.send(SensorService.this, action);
+            }
+        });
     }
 
     public class SensorBinder extends Binder {
@@ -299,51 +619,105 @@ public class SensorService extends Service implements SensorEventListener {
     }
 
 
-    private final PhoneStateListener mPhoneStateListener = new PhoneStateListener() {
+    private class CallStateListener extends PhoneStateListener {
         @Override
         public void onCallStateChanged(int state, String incomingNumber) {
             DebugLog.d(TAG, String.format(Locale.US, "onCallStateChanged(%d, %s)", state, incomingNumber));
+            if (mTraceRecorder != null) {
+                mTraceRecorder.recordCallState(state);
+            }
+            mCallStateMachine.onCallStateChanged(state, incomingNumber);
+        }
+    }
 
-            switch (state) {
-                case TelephonyManager.CALL_STATE_RINGING:
-                    DebugLog.d(TAG, "PhoneStateListener CALL_STATE_RINGING");
-                    if (!mCountStarted) {
-                        /*
-                         * Incoming call. This state is received before the CALL_STATE_OFFHOOK
-                         * change, which is starting the actual counting.
-                         * If we're here, it means a call is incoming, otherwise not.
-                         * Ignore if we're already on a call.
-                         *
-                         * TODO: handle incoming call when already on the phone / put on hold etc.
-                         */
-                        mCallIncoming = true;
-                    }
-                    break;
-                case TelephonyManager.CALL_STATE_OFFHOOK:
-                    DebugLog.d(TAG, "PhoneStateListener CALL_STATE_OFFHOOK");
-                    if (!mCountStarted) {
-                        startCounting();
-                        mCallSession.isIncoming = mCallIncoming;
-                        if (mSharedPrefs.getBoolean(SettingsActivity.STORE_PHONE_NUMBER, false)) {
-                            mCallSession.phoneNumber = incomingNumber;
-                        }
-                    }
-                    break;
-                case TelephonyManager.CALL_STATE_IDLE:
-                    DebugLog.d(TAG, "PhoneStateListener CALL_STATE_IDLE");
-                    stopCounting();
-                    break;
+    private class CallSessionHandler implements CallStateMachine.Callback {
+        @Override
+        public void onSessionStart(boolean incoming, String phoneNumber) {
+            DebugLog.d(TAG, "Call session started, incoming: " + incoming);
+            if (!mCountStarted) {
+                startCounting();
+                mCallSession.isIncoming = incoming;
+                if (SettingsActivity.storePhoneNumber(SensorService.this)) {
+                    mCallSession.phoneNumber = phoneNumber;
+                }
+                mJournal.setCallInfo(mCallSession.isIncoming, mCallSession.phoneNumber);
             }
         }
-    };
+
+        @Override
+        public void onCallWaiting(String phoneNumber) {
+            DebugLog.d(TAG, "Call waiting, session continues with "
+                    + mCallStateMachine.getCallCount() + " calls");
+        }
+
+        @Override
+        public void onSessionEnd() {
+            DebugLog.d(TAG, "Call session ended");
+            stopCounting();
+        }
+    }
 
 
     public void testingStartCounter() {
-        startCounting();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                startCounting();
+            }
+        });
     }
 
     public void testingStopCounter() {
-        stopCounting();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopCounting();
+            }
+        });
+    }
+
+    /**
+     * Start recording raw sensor events and call state changes to a new trace file.
+     * See {@link SensorTraceRecorder} for details.
+     */
+    public void testingStartTraceRecording() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeTraceRecorder();
+
+                File dir = getExternalFilesDir(null);
+                if (dir == null) {
+                    dir = getFilesDir();
+                }
+                File file = new File(dir, "trace-" + System.currentTimeMillis() + ".bin");
+
+                try {
+                    mTraceRecorder = new SensorTraceRecorder(file);
+                    mStepCounterHandler.setTraceRecorder(mTraceRecorder);
+                    DebugLog.i(TAG, "Recording trace to " + file);
+                } catch (IOException e) {
+                    DebugLog.e(TAG, "Cannot create trace file " + file, e);
+                }
+            }
+        });
+    }
+
+    public void testingStopTraceRecording() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeTraceRecorder();
+            }
+        });
+    }
+
+    private void closeTraceRecorder() {
+        if (mTraceRecorder != null) {
+            mStepCounterHandler.setTraceRecorder(null);
+            mTraceRecorder.close();
+            mTraceRecorder = null;
+        }
     }
 
     public void testingDumpLogCallSessions() {
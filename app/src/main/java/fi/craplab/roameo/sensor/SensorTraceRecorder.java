@@ -0,0 +1,155 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.sensor;
+
+import android.os.SystemClock;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import fi.craplab.roameo.util.DebugLog;
+
+/**
+ * Records raw step counter events and call state changes to a compact binary trace file,
+ * which can be replayed on a plain JVM later on.
+ *
+ * Only meant for testing, and only available with {@code BuildConfig.TestFeatures} enabled.
+ * Phone numbers are never recorded.
+ *
+ * Trace format, all values big endian:
+ * <pre>
+ *   header:  int magic, int version, long wall clock time (ms), long elapsed realtime (ns)
+ *   records: byte type, long elapsed realtime (ns), int value
+ * </pre>
+ * The header's time pair allows converting the elapsed realtime based event times back to
+ * wall clock time. A step counter record's value is the raw sensor value, a call state
+ * record's value is one of the {@code TelephonyManager.CALL_STATE_*} constants.
+ */
+class SensorTraceRecorder {
+    private static final String TAG = SensorTraceRecorder.class.getSimpleName();
+
+    static final int MAGIC = 0x52545243; // "RTRC"
+    static final int VERSION = 1;
+
+    static final byte TYPE_STEP_COUNTER = 1;
+    static final byte TYPE_CALL_STATE = 2;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final File mFile;
+    private DataOutputStream mOutput;
+    private int mRecordCount = 0;
+
+    /**
+     * Create a new trace recorder and write the trace header.
+     *
+     * @param file Trace file to write to, an existing file is overwritten
+     * @throws IOException if the file can't be written
+     */
+    SensorTraceRecorder(File file) throws IOException {
+        this(file, System.currentTimeMillis(), SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Create a new trace recorder with the given time pair in its header.
+     *
+     * @param file Trace file to write to, an existing file is overwritten
+     * @param wallClockTime Current wall clock time in milliseconds
+     * @param elapsedRealtime Current elapsed realtime in nanoseconds
+     * @throws IOException if the file can't be written
+     */
+    SensorTraceRecorder(File file, long wallClockTime, long elapsedRealtime) throws IOException {
+        mFile = file;
+        mOutput = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), BUFFER_SIZE));
+
+        mOutput.writeInt(MAGIC);
+        mOutput.writeInt(VERSION);
+        mOutput.writeLong(wallClockTime);
+        mOutput.writeLong(elapsedRealtime);
+    }
+
+    /**
+     * Record a step counter sensor event.
+     *
+     * @param timestamp Sensor event timestamp in nanoseconds
+     * @param counterValue Raw step counter value
+     */
+    void recordStepCounter(long timestamp, int counterValue) {
+        write(TYPE_STEP_COUNTER, timestamp, counterValue);
+    }
+
+    /**
+     * Record a call state change.
+     *
+     * @param state New call state
+     */
+    void recordCallState(int state) {
+        write(TYPE_CALL_STATE, SystemClock.elapsedRealtimeNanos(), state);
+    }
+
+    private void write(byte type, long timestamp, int value) {
+        if (mOutput == null) {
+            return;
+        }
+
+        try {
+            mOutput.writeByte(type);
+            mOutput.writeLong(timestamp);
+            mOutput.writeInt(value);
+            mRecordCount++;
+        } catch (IOException e) {
+            DebugLog.e(TAG, "Cannot write trace, stopping recording", e);
+            close();
+        }
+    }
+
+    /**
+     * Flush and close the trace file. Any further records are ignored.
+     */
+    void close() {
+        if (mOutput == null) {
+            return;
+        }
+
+        try {
+            mOutput.close();
+            DebugLog.i(TAG, "Recorded " + mRecordCount + " events to " + mFile);
+        } catch (IOException e) {
+            DebugLog.e(TAG, "Cannot close trace " + mFile, e);
+        }
+        mOutput = null;
+    }
+
+    /**
+     * Get the trace file.
+     *
+     * @return Trace file
+     */
+    File getFile() {
+        return mFile;
+    }
+}
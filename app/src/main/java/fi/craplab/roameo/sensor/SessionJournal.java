@@ -0,0 +1,325 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.util.DebugLog;
+
+/**
+ * Append-only journal of the ongoing call session.
+ *
+ * The in-progress {@link CallSession} and its minute steps only exist in memory until the call
+ * ends. To not lose everything if the process gets killed during a call, the session's basic
+ * information and every step counter event are written to a memory-mapped file. Writing an event
+ * is just two integer stores into memory, the kernel takes care of getting it onto the disk -
+ * even if the process dies right after.
+ *
+ * File layout (big endian):
+ * <pre>
+ *   header (72 bytes)
+ *     int     magic
+ *     int     version
+ *     long    session timestamp
+ *     int     step counter offset, -1 if unknown
+ *     int     1 if incoming call, 0 otherwise
+ *     long    wall clock time of the boot the step counter counts from
+ *     int     phone number length in bytes
+ *     byte[]  phone number (UTF-8, max 32 bytes)
+ *   records (8 bytes each)
+ *     int     event time offset from session start in milliseconds
+ *     int     number of steps since previous event, 0 marks the end of the journal
+ * </pre>
+ *
+ * If a journal is found when the {@link SensorService} starts, it can be replayed into a
+ * {@link CallSession} and its {@link MinuteStepBuckets} to store it after all. Unless the device
+ * was rebooted since, the counter offset and the journaled steps also give the last known step
+ * counter value, so counting can go on from there.
+ */
+class SessionJournal {
+    private static final String TAG = SessionJournal.class.getSimpleName();
+
+    private static final String FILE_NAME = "session.journal";
+
+    private static final int MAGIC = 0x524a4e4c; // "RJNL"
+    private static final int VERSION = 2;
+
+    private static final int OFFSET_MAGIC = 0;
+    private static final int OFFSET_VERSION = 4;
+    private static final int OFFSET_TIMESTAMP = 8;
+    private static final int OFFSET_COUNTER = 16;
+    private static final int OFFSET_INCOMING = 20;
+    private static final int OFFSET_BOOT_TIME = 24;
+    private static final int OFFSET_NUMBER_LENGTH = 32;
+    private static final int OFFSET_NUMBER = 36;
+    private static final int MAX_NUMBER_LENGTH = 32;
+    private static final int HEADER_SIZE = 72;
+
+    private static final int RECORD_SIZE = 8;
+
+    /** Initial file size, enough for a bit over an hour of constant walking */
+    private static final int INITIAL_SIZE = 64 * 1024;
+
+    /**
+     * Max difference between two boot times to still consider them the same boot, as they are
+     * derived from the wall clock, which might get adjusted in between
+     */
+    private static final long BOOT_TIME_TOLERANCE_MS = 10000;
+
+    private static final int NO_VALUE = -1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private MappedByteBuffer mBuffer;
+    private int mPosition;
+
+    private int mReplayedCounterValue = NO_VALUE;
+    private long mReplayedBootTime = 0;
+
+    SessionJournal(File directory) {
+        mFile = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Start a new journal for the given session, discarding any previous one.
+     *
+     * @param sessionTimestamp Session start timestamp in milliseconds
+     * @param bootTime Wall clock time of the current boot in milliseconds
+     */
+    void begin(long sessionTimestamp, long bootTime) {
+        close();
+
+        if (mFile.exists() && !mFile.delete()) {
+            DebugLog.w(TAG, "Cannot delete previous journal");
+        }
+
+        try {
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            map(INITIAL_SIZE);
+        } catch (IOException e) {
+            DebugLog.w(TAG, "Cannot create journal, session won't survive process death", e);
+            close();
+            return;
+        }
+
+        mBuffer.putInt(OFFSET_VERSION, VERSION);
+        mBuffer.putLong(OFFSET_TIMESTAMP, sessionTimestamp);
+        mBuffer.putInt(OFFSET_COUNTER, NO_VALUE);
+        mBuffer.putLong(OFFSET_BOOT_TIME, bootTime);
+        mBuffer.putInt(OFFSET_MAGIC, MAGIC);
+        mPosition = HEADER_SIZE;
+    }
+
+    /**
+     * Store call direction and phone number of the journaled session.
+     *
+     * @param incoming true if incoming call
+     * @param phoneNumber Phone number, or null if it shouldn't be stored
+     */
+    void setCallInfo(boolean incoming, String phoneNumber) {
+        if (mBuffer == null) {
+            return;
+        }
+
+        mBuffer.putInt(OFFSET_INCOMING, incoming ? 1 : 0);
+
+        if (phoneNumber != null) {
+            byte[] number = phoneNumber.getBytes(UTF8);
+            int length = Math.min(number.length, MAX_NUMBER_LENGTH);
+            for (int i = 0; i < length; i++) {
+                mBuffer.put(OFFSET_NUMBER + i, number[i]);
+            }
+            mBuffer.putInt(OFFSET_NUMBER_LENGTH, length);
+        }
+    }
+
+    /**
+     * Store the step counter value the session started with.
+     *
+     * @param counterOffset Step counter offset
+     */
+    void setCounterOffset(int counterOffset) {
+        if (mBuffer != null) {
+            mBuffer.putInt(OFFSET_COUNTER, counterOffset);
+        }
+    }
+
+    /**
+     * Append a step counter event to the journal.
+     *
+     * @param timestamp Event time offset from session start in milliseconds
+     * @param steps Number of steps since previous event
+     */
+    void append(long timestamp, int steps) {
+        if (mBuffer == null || steps <= 0) {
+            return;
+        }
+
+        if (mPosition + RECORD_SIZE > mBuffer.capacity()) {
+            try {
+                map(mBuffer.capacity() * 2);
+            } catch (IOException e) {
+                DebugLog.w(TAG, "Cannot grow journal, stop journaling this session", e);
+                close();
+                return;
+            }
+        }
+
+        // write steps last, a record with zero steps marks the end of the journal
+        mBuffer.putInt(mPosition, (int) timestamp);
+        mBuffer.putInt(mPosition + 4, steps);
+        mPosition += RECORD_SIZE;
+    }
+
+    /**
+     * Close and delete the journal, i.e. after its session was stored to the database.
+     */
+    void discard() {
+        close();
+        if (mFile.exists() && !mFile.delete()) {
+            DebugLog.w(TAG, "Cannot delete journal");
+        }
+    }
+
+    /**
+     * Replay a journal left behind by a previous process into the given objects.
+     *
+     * The session's duration is set up until the latest journaled step counter event,
+     * as the actual end of the call is unknown. The step counter value at that event is
+     * available afterwards from {@link #getReplayedCounterValue(long)}.
+     *
+     * @param callSession {@link CallSession} to restore timestamp, call information, duration
+     *                    and step count into
+     * @param minuteSteps {@link MinuteStepBuckets} to add all journaled events to
+     * @return true if a valid journal was found and replayed, false otherwise
+     */
+    boolean replay(CallSession callSession, MinuteStepBuckets minuteSteps) {
+        mReplayedCounterValue = NO_VALUE;
+
+        if (mBuffer != null || !mFile.exists()) {
+            return false;
+        }
+
+        try {
+            mRandomAccessFile = new RandomAccessFile(mFile, "r");
+            long size = mRandomAccessFile.length();
+            if (size < HEADER_SIZE) {
+                return false;
+            }
+
+            MappedByteBuffer buffer = mRandomAccessFile.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+            if (buffer.getInt(OFFSET_MAGIC) != MAGIC || buffer.getInt(OFFSET_VERSION) != VERSION) {
+                DebugLog.w(TAG, "Ignoring invalid journal");
+                return false;
+            }
+
+            callSession.timestamp = buffer.getLong(OFFSET_TIMESTAMP);
+            callSession.isIncoming = buffer.getInt(OFFSET_INCOMING) == 1;
+
+            int numberLength = Math.min(buffer.getInt(OFFSET_NUMBER_LENGTH), MAX_NUMBER_LENGTH);
+            if (numberLength > 0) {
+                byte[] number = new byte[numberLength];
+                for (int i = 0; i < numberLength; i++) {
+                    number[i] = buffer.get(OFFSET_NUMBER + i);
+                }
+                callSession.phoneNumber = new String(number, UTF8);
+            }
+
+            long stepCount = 0;
+            long maxTimestamp = 0;
+
+            for (int position = HEADER_SIZE; position + RECORD_SIZE <= size; position += RECORD_SIZE) {
+                int timestamp = buffer.getInt(position);
+                int steps = buffer.getInt(position + 4);
+                if (steps <= 0) {
+                    break;
+                }
+
+                minuteSteps.add(timestamp, steps);
+                stepCount += steps;
+                // records are appended in the order the events arrived, not necessarily by time
+                maxTimestamp = Math.max(maxTimestamp, timestamp);
+            }
+
+            callSession.stepCount = stepCount;
+            callSession.duration = maxTimestamp;
+
+            int counterOffset = buffer.getInt(OFFSET_COUNTER);
+            if (counterOffset != NO_VALUE) {
+                mReplayedCounterValue = (int) (counterOffset + stepCount);
+                mReplayedBootTime = buffer.getLong(OFFSET_BOOT_TIME);
+            }
+
+            DebugLog.i(TAG, "Replayed journal, counter offset was " + counterOffset
+                    + ", recovered " + callSession);
+            return true;
+
+        } catch (IOException e) {
+            DebugLog.w(TAG, "Cannot read journal", e);
+            return false;
+
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Get the step counter value at the end of the last replayed journal, i.e. its counter
+     * offset plus all journaled steps. The counter starts over from zero at each boot, so the
+     * value is only known if the journal was written within the current boot.
+     *
+     * @param bootTime Wall clock time of the current boot in milliseconds
+     * @return Step counter value, or -1 if unknown
+     */
+    int getReplayedCounterValue(long bootTime) {
+        if (Math.abs(bootTime - mReplayedBootTime) > BOOT_TIME_TOLERANCE_MS) {
+            return NO_VALUE;
+        }
+        return mReplayedCounterValue;
+    }
+
+    private void map(int size) throws IOException {
+        mBuffer = mRandomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private void close() {
+        mBuffer = null;
+        if (mRandomAccessFile != null) {
+            try {
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                DebugLog.w(TAG, "Cannot close journal", e);
+            }
+            mRandomAccessFile = null;
+        }
+    }
+}
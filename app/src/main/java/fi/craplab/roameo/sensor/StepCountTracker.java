@@ -0,0 +1,145 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.sensor;
+
+/**
+ * Turns the raw step counter sensor values of a call session into per-minute step counts.
+ *
+ * The step counter sensor reports the total number of steps since the last reboot, so the counter
+ * value at the session start is used as offset, and every following value adds the difference to
+ * its predecessor to the {@link MinuteStepBuckets}. The offset is either the last value known
+ * before the session started, or if there is none, the first value received within the session.
+ *
+ * Doesn't depend on any Android classes, so the same counting logic used in
+ * {@link SensorService} can be replayed on a plain JVM.
+ */
+class StepCountTracker {
+    private static final int NO_VALUE = -1;
+
+    private final MinuteStepBuckets mBuckets;
+
+    private int mCounterOffset = NO_VALUE;
+    private int mLastCounterValue = NO_VALUE;
+
+    StepCountTracker(MinuteStepBuckets buckets) {
+        mBuckets = buckets;
+    }
+
+    /**
+     * Reset the tracker for a new session without any known counter value, clearing all minutes.
+     */
+    void reset() {
+        reset(NO_VALUE);
+    }
+
+    /**
+     * Reset the tracker for a new session, clearing all minutes.
+     *
+     * @param baselineValue Last counter value known before the session started, used as
+     *                      counter offset, or -1 if unknown
+     */
+    void reset(int baselineValue) {
+        mCounterOffset = baselineValue;
+        mLastCounterValue = baselineValue;
+        mBuckets.clear();
+    }
+
+    /**
+     * Handle a new step counter value.
+     *
+     * @param counterValue Step counter sensor value
+     * @param timestamp Event time offset from session start in milliseconds, negative if the
+     *                  value was counted before the session started
+     * @return Number of new steps, or zero if the value was used as counter offset or was
+     *         the same as the previous one
+     */
+    int onCounterValue(int counterValue, long timestamp) {
+        if (counterValue == mLastCounterValue) {
+            // ignore multiple reports of same counter value (might happen every now and then)
+            return 0;
+        }
+
+        if (timestamp < 0) {
+            /*
+             * Counted before the session started, e.g. flushed from the sensor's FIFO right
+             * after the session started. Only moves the counter offset closer to the start.
+             */
+            mCounterOffset = counterValue;
+            mLastCounterValue = counterValue;
+            return 0;
+        }
+
+        if (mCounterOffset == NO_VALUE) {
+            /*
+             * First step count event in this session, and no value known from before.
+             * This is triggered after registering the sensor listener and contains the
+             * previous step count information. Using the step count value to initialize
+             * this session's counter offset and return - this is invalid data otherwise.
+             */
+            mCounterOffset = counterValue;
+            mLastCounterValue = counterValue;
+            return 0;
+        }
+
+        int delta = counterValue - mLastCounterValue;
+        mBuckets.add(timestamp, delta);
+        mLastCounterValue = counterValue;
+        return delta;
+    }
+
+    /**
+     * Check if the counter offset of this session is known yet.
+     *
+     * @return {@code true} if the first counter value was received
+     */
+    boolean hasCounterOffset() {
+        return mCounterOffset != NO_VALUE;
+    }
+
+    /**
+     * Get the counter offset, i.e. the first counter value received within this session.
+     *
+     * @return Counter offset, or -1 if none was received yet
+     */
+    int getCounterOffset() {
+        return mCounterOffset;
+    }
+
+    /**
+     * Get the last received counter value.
+     *
+     * @return Last counter value, or -1 if none was received yet
+     */
+    int getCounterValue() {
+        return mLastCounterValue;
+    }
+
+    /**
+     * Get the number of steps counted so far within this session.
+     *
+     * @return Step count
+     */
+    int getStepCount() {
+        return hasCounterOffset() ? mLastCounterValue - mCounterOffset : 0;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+/**
+ * Handles the step counter values of an ongoing call session, i.e. everything
+ * {@link SensorService#onSensorChanged(android.hardware.SensorEvent)} does for each event
+ * during a call.
+ *
+ * Each value is recorded to the sensor trace if one is running, counted by the
+ * {@link StepCountTracker}, appended to the {@link SessionJournal}, and passed on to the
+ * real-time notification's {@link OngoingNotificationUpdater}. None of this allocates memory
+ * as long as the call fits into the preallocated minutes and journal, and none of it depends
+ * on Android classes, so the whole path can be checked on a plain JVM.
+ */
+class StepCounterHandler {
+    private final StepCountTracker mStepTracker;
+    private final SessionJournal mJournal;
+    private final OngoingNotificationUpdater<?> mNotificationUpdater;
+
+    private SensorTraceRecorder mTraceRecorder;
+    private boolean mRealTimeNotification = false;
+
+    /**
+     * Create a new step counter handler.
+     *
+     * @param stepTracker Step counter tracker of the session
+     * @param journal Journal of the session
+     * @param notificationUpdater Real-time notification of the session
+     */
+    StepCounterHandler(StepCountTracker stepTracker, SessionJournal journal,
+                       OngoingNotificationUpdater<?> notificationUpdater) {
+        mStepTracker = stepTracker;
+        mJournal = journal;
+        mNotificationUpdater = notificationUpdater;
+    }
+
+    /**
+     * Set the trace recorder to record raw step counter values to.
+     *
+     * @param traceRecorder Trace recorder, or {@code null} to stop recording
+     */
+    void setTraceRecorder(SensorTraceRecorder traceRecorder) {
+        mTraceRecorder = traceRecorder;
+    }
+
+    /**
+     * Set if the real-time notification is updated with each counted step.
+     *
+     * @param realTimeNotification {@code true} to update the notification
+     */
+    void setRealTimeNotification(boolean realTimeNotification) {
+        mRealTimeNotification = realTimeNotification;
+    }
+
+    /**
+     * Record a raw step counter value to the trace, if one is recorded.
+     *
+     * @param eventTimestamp Sensor event timestamp in nanoseconds
+     * @param counterValue Raw step counter value
+     */
+    void trace(long eventTimestamp, int counterValue) {
+        if (mTraceRecorder != null) {
+            mTraceRecorder.recordStepCounter(eventTimestamp, counterValue);
+        }
+    }
+
+    /**
+     * Handle a step counter value of the ongoing call session.
+     *
+     * @param eventTimestamp Sensor event timestamp in nanoseconds
+     * @param counterValue Raw step counter value
+     * @param timestamp Time the value was counted at, relative to the session start in
+     *                  milliseconds
+     * @return Number of new steps, 0 if the value didn't add any
+     */
+    int onStepCounter(long eventTimestamp, int counterValue, long timestamp) {
+        trace(eventTimestamp, counterValue);
+
+        int offset = mStepTracker.getCounterOffset();
+        int delta = mStepTracker.onCounterValue(counterValue, timestamp);
+
+        if (offset != mStepTracker.getCounterOffset()) {
+            mJournal.setCounterOffset(mStepTracker.getCounterOffset());
+        }
+
+        if (delta == 0) {
+            return 0;
+        }
+
+        mJournal.append(timestamp, delta);
+
+        int stepCount = mStepTracker.getStepCount();
+        if (stepCount > 0 && mRealTimeNotification) {
+            mNotificationUpdater.update(stepCount);
+        }
+        return delta;
+    }
+}
@@ -39,6 +39,7 @@ import java.util.concurrent.TimeUnit;
 import fi.craplab.roameo.R;
 import fi.craplab.roameo.RoameoEvents;
 import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.DatabaseWriter;
 import fi.craplab.roameo.util.DebugLog;
 import fi.craplab.roameo.util.ShareUtils;
 
@@ -100,11 +101,16 @@ public class GoogleFitUploadTask extends AsyncTask<Void, Void, Void> {
                         .await(1, TimeUnit.MINUTES);
 
         if (insertStatus.isSuccess()) {
-            String sessionId = sessionInsertRequest.getSession().getIdentifier();
+            final String sessionId = sessionInsertRequest.getSession().getIdentifier();
             DebugLog.i(TAG, "Session successfully inserted, saving session id " + sessionId);
-            mCallSession.googleFitIdentifier = sessionId;
-            mCallSession.save();
-            RoameoEvents.send(mClient.getContext(), RoameoEvents.ACTION_GOOGLE_FIT_DATA_UPLOADED);
+            DatabaseWriter.execute(new Runnable() {
+                @Override
+                public void run() {
+                    CallSession.saveGoogleFitIdentifier(mCallSession, sessionId);
+                    RoameoEvents.send(mClient.getContext(),
+                            RoameoEvents.ACTION_GOOGLE_FIT_DATA_UPLOADED);
+                }
+            });
 
         } else {
             DebugLog.e(TAG, "Failed to insert session: " + insertStatus.toString());
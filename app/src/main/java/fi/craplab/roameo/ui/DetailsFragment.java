@@ -29,7 +29,7 @@ import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.support.v4.app.FragmentPagerAdapter;
+import android.support.v4.app.FragmentStatePagerAdapter;
 import android.support.v4.content.LocalBroadcastManager;
 import android.support.v4.view.ViewPager;
 import android.view.LayoutInflater;
@@ -43,10 +43,10 @@ import com.google.android.gms.common.api.GoogleApiClient;
 
 import java.text.DateFormat;
 import java.util.Date;
-import java.util.List;
 
 import fi.craplab.roameo.R;
 import fi.craplab.roameo.RoameoEvents;
+import fi.craplab.roameo.data.PagedSessionList;
 import fi.craplab.roameo.model.CallSession;
 import fi.craplab.roameo.share.GoogleFitClientBuilder;
 import fi.craplab.roameo.share.GoogleFitUploadTask;
@@ -56,8 +56,10 @@ import fi.craplab.roameo.util.ShareUtils;
 
 /**
  * {@link DetailsDataFragment} (call session) container accessed through menu.
+ *
+ * Sessions are loaded page-wise through {@link PagedSessionList}, and fragments of pages out
+ * of sight are destroyed, so the amount of stored sessions doesn't affect opening this.
  */
-/* FIXME all Fragments are created at once, this will suck on performance sooner or later */
 public class DetailsFragment extends Fragment implements ViewPager.OnPageChangeListener {
     private static final String TAG = DetailsFragment.class.getSimpleName();
 
@@ -115,11 +117,15 @@ public class DetailsFragment extends Fragment implements ViewPager.OnPageChangeL
         //super.onCreateOptionsMenu(menu, inflater);
 
         DebugLog.d(TAG, "creating option menu");
-        if (mSectionsPagerAdapter.getCount() == 0) {
+        CallSession callSession = mSectionsPagerAdapter.getCallSession(mViewPager.getCurrentItem());
+        if (callSession == null) {
             return;
         }
-
-        CallSession callSession = mSectionsPagerAdapter.getCallSession(mViewPager.getCurrentItem());
+        // the paged list's copy doesn't see a Google Fit upload that finished meanwhile
+        CallSession current = CallSession.getById(callSession.getId());
+        if (current != null) {
+            callSession = current;
+        }
 
         inflater.inflate(R.menu.menu_details, menu);
         MenuItem gFitShare = menu.findItem(R.id.action_upload_google_fit);
@@ -171,18 +177,21 @@ public class DetailsFragment extends Fragment implements ViewPager.OnPageChangeL
     }
 
 
-    public class SectionsPagerAdapter extends FragmentPagerAdapter {
-        private final List<CallSession> mSessions;
+    public class SectionsPagerAdapter extends FragmentStatePagerAdapter {
+        private final PagedSessionList mSessions;
 
         SectionsPagerAdapter(FragmentManager fm) {
             super(fm);
-            mSessions = CallSession.getSessionsReverse();
+            mSessions = new PagedSessionList();
         }
 
         @Override
         public Fragment getItem(int position) {
             DebugLog.d(TAG, "getItem() " + position);
-            return DetailsDataFragment.newInstance(mSessions.get(position).getId());
+            CallSession callSession = mSessions.get(position);
+            // session deleted in the meantime, DetailsDataFragment shows an empty page for it
+            return DetailsDataFragment.newInstance(
+                    (callSession != null) ? callSession.getId() : -1);
         }
 
         @Override
@@ -194,15 +203,16 @@ public class DetailsFragment extends Fragment implements ViewPager.OnPageChangeL
         @Override
         public CharSequence getPageTitle(int position) {
             DebugLog.d(TAG, "getPageTitle() " + position);
-            if (mSessions.size() > 0) {
+            CallSession callSession = mSessions.get(position);
+            if (callSession != null) {
                 return DateFormat.getDateInstance(DateFormat.LONG).format(
-                        new Date(mSessions.get(position).timestamp));
+                        new Date(callSession.timestamp));
             }
             return "";
         }
 
         CallSession getCallSession(int position) {
-            return (position < mSessions.size()) ? mSessions.get(position) : null;
+            return mSessions.get(position);
         }
     }
 
@@ -37,6 +37,7 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import fi.craplab.roameo.R;
 import fi.craplab.roameo.RoameoEvents;
 import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.DatabaseWriter;
 import fi.craplab.roameo.share.GoogleFitClientBuilder;
 import fi.craplab.roameo.share.GoogleFitDeleteTask;
 import fi.craplab.roameo.share.GoogleFitUploadTask;
@@ -120,7 +121,7 @@ public class SessionDetailsActivity extends AppCompatActivity
     }
 
     @Override
-    public void onConfirmDelete(long callSessionId, boolean deleteFromGoogleFit) {
+    public void onConfirmDelete(final long callSessionId, boolean deleteFromGoogleFit) {
         DebugLog.i(TAG, "Deleting CallSession with id " + callSessionId);
 
         GoogleApiClient gFitClient = GoogleFitClientBuilder.getApiClient();
@@ -132,8 +133,14 @@ public class SessionDetailsActivity extends AppCompatActivity
             }
         }
 
-        CallSession.delete(CallSession.class, callSessionId);
-        RoameoEvents.send(this, RoameoEvents.ACTION_CALL_DATA_UPDATED);
+        final Context context = getApplicationContext();
+        DatabaseWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                CallSession.deleteSession(callSessionId);
+                RoameoEvents.send(context, RoameoEvents.ACTION_CALL_DATA_UPDATED);
+            }
+        });
         finish();
     }
 
@@ -43,6 +43,7 @@ import fi.craplab.roameo.BuildConfig;
 import fi.craplab.roameo.R;
 import fi.craplab.roameo.RoameoApplication;
 import fi.craplab.roameo.RoameoEvents;
+import fi.craplab.roameo.RoameoSettings;
 import fi.craplab.roameo.ui.view.ReadContactsDialog;
 import fi.craplab.roameo.util.DebugLog;
 import fi.craplab.roameo.util.Utils;
@@ -64,11 +65,16 @@ public class SettingsActivity extends AppCompatActivity
     public static final String CALCULATE_DISTANCE = "calculateDistance";
     public static final String DISTANCE_STEP_SIZE = "distanceStepSize";
     public static final String SHOW_NOTIFICATIONS = "showNotifications";
+    public static final String NOTIFICATION_UPDATE_INTERVAL = "notificationUpdateInterval";
     public static final String KEEP_NOTIFICATIONS = "keepNotifications";
     public static final String STORE_PHONE_NUMBER = "storePhoneNumber";
     public static final String LOOKUP_CALLCONTACT = "lookupContacts";
     public static final String STORE_EMPTY_COUNTS = "storeEmptyCounts";
     public static final String FIRST_START_TSTAMP = "firstStartTimestamp";
+    public static final String SENSOR_BATCH_LATENCY = "sensorBatchLatency";
+    public static final String COMPACT_MINUTE_STORAGE = "compactMinuteStorage";
+    /** Not a setting, set once existing minutes are packed after enabling compact storage */
+    public static final String MINUTE_DATA_PACKED = "minuteDataPacked";
 
     public static final int NOTIFICATION_MODE_OFF = 1;
     public static final int NOTIFICATION_MODE_SUMMARY = 2;
@@ -208,6 +214,11 @@ public class SettingsActivity extends AppCompatActivity
                     setFootSize(sharedPreferences, false);
                     break;
 
+                case COMPACT_MINUTE_STORAGE:
+                    // sessions may be stored as rows now, pack them at next start if enabled
+                    sharedPreferences.edit().remove(MINUTE_DATA_PACKED).apply();
+                    break;
+
                 case STORE_PHONE_NUMBER:
                     boolean numberSetting = sharedPreferences.getBoolean(STORE_PHONE_NUMBER, false);
                     mLookupContactsPref.setEnabled(numberSetting);
@@ -243,30 +254,50 @@ public class SettingsActivity extends AppCompatActivity
         }
     }
 
-    private static SharedPreferences getPrefs(Context context) {
-        return PreferenceManager.getDefaultSharedPreferences(context);
-    }
+    /*
+     * All settings below are read from the RoameoSettings snapshot, which is only rebuilt when
+     * a preference changes. They're safe to call from hot paths.
+     */
     public static int showNotificationMode(Context context) {
         // TODO notifications might be disabled, consider this (tell user, ask to enable or whatever)
-        return Integer.parseInt(getPrefs(context).getString(SHOW_NOTIFICATIONS, "0"));
+        return RoameoSettings.get(context).notificationMode;
     }
 
     public static boolean keepNotifications(Context context) {
-        return getPrefs(context).getBoolean(KEEP_NOTIFICATIONS, false);
+        return RoameoSettings.get(context).keepNotifications;
+    }
+
+    public static boolean storePhoneNumber(Context context) {
+        return RoameoSettings.get(context).storePhoneNumber;
+    }
+
+    public static boolean storeEmptyCounts(Context context) {
+        return RoameoSettings.get(context).storeEmptyCounts;
+    }
+
+    /**
+     * Return if a call session's steps per minute should be stored packed inside the session
+     * itself, instead of one database row per minute.
+     *
+     * @param context Context
+     * @return true if compact minute storage is enabled
+     */
+    public static boolean compactMinuteStorage(Context context) {
+        return RoameoSettings.get(context).compactMinuteStorage;
     }
 
     /**
-     * Return if contact name should and can be used instead of phone number
+     * Return if contact name should and can be used instead of phone number.
+     * The permission is checked on each call, as it can be granted or revoked at any time
+     * without any preference changing.
+     *
      * @param context Context
      * @return true if lookup setting is set and {@code READ_CONTACTS} permission is granted,
      *         false otherwise
      */
     public static boolean mapNumberToContact(Context context) {
-        int phoneStatePermission = ActivityCompat.checkSelfPermission(
-                context, Manifest.permission.READ_CONTACTS);
-
-        return getPrefs(context).getBoolean(LOOKUP_CALLCONTACT, false)
-                && (phoneStatePermission == PackageManager.PERMISSION_GRANTED);
+        return RoameoSettings.get(context).lookupContacts
+                && Utils.hasRuntimePermission(context, Manifest.permission.READ_CONTACTS);
     }
 
     /**
@@ -276,10 +307,31 @@ public class SettingsActivity extends AppCompatActivity
      * @return Week start day offset from Monday
      */
     public static int weekStartDayOffset(Context context) {
-        return Integer.parseInt(getPrefs(context).getString(WEEK_STARTS_AT_DAY, "0"));
+        return RoameoSettings.get(context).weekStartDayOffset;
     }
 
     public static boolean isGoogleFitEnabled(Context context) {
-        return getPrefs(context).getBoolean(CONNECT_GOOGLE_FIT, false);
+        return RoameoSettings.get(context).googleFitEnabled;
+    }
+
+    /**
+     * Get the maximum time step counter events may be held back in the sensor's hardware FIFO
+     * before they are delivered, zero if every event should be reported right away.
+     *
+     * @param context Context
+     * @return Step counter max report latency in seconds
+     */
+    public static int sensorBatchLatency(Context context) {
+        return RoameoSettings.get(context).sensorBatchLatency;
+    }
+
+    /**
+     * Get the minimum time between two updates of the real-time step count notification.
+     *
+     * @param context Context
+     * @return Notification update interval in seconds
+     */
+    public static int notificationUpdateInterval(Context context) {
+        return RoameoSettings.get(context).notificationUpdateInterval;
     }
 }
\ No newline at end of file
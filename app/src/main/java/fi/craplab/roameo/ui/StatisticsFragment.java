@@ -38,18 +38,22 @@ import com.joanzapata.iconify.IconDrawable;
 import com.joanzapata.iconify.fonts.SimpleLineIconsIcons;
 
 import org.joda.time.DateTime;
+import org.joda.time.Weeks;
 
 import fi.craplab.roameo.R;
+import fi.craplab.roameo.data.WeekStatsLoader;
 import fi.craplab.roameo.model.CallSession;
 import fi.craplab.roameo.ui.view.StatisticsDialog;
 
 /**
  * Weekly statistics main fragment.
  *
- * Displays {@link StatisticsWeekFragment}s in its internal {@link ViewPager}.
+ * Displays {@link StatisticsWeekFragment}s in its internal {@link ViewPager}. All pages read
+ * their data from the history {@link WeekStatsLoader} loads once when the screen opens, so only
+ * the direct neighbours of the current week are kept as pages.
  */
 public class StatisticsFragment extends Fragment  implements ViewPager.OnPageChangeListener {
-    private static final int MAX_FRAGMENTS_KEEP = 6;
+    private static final int MAX_FRAGMENTS_KEEP = 1;
 
     private ViewPager mViewPager;
     private StatisticsPagerAdapter mPagerAdapter;
@@ -63,6 +67,8 @@ public class StatisticsFragment extends Fragment  implements ViewPager.OnPageCha
 
         mViewPager = (ViewPager) rootView.findViewById(R.id.statistics_view_pager);
         mPagerAdapter = new StatisticsPagerAdapter(getChildFragmentManager());
+        WeekStatsLoader.open(mPagerAdapter.firstWeek.plusDays(
+                SettingsActivity.weekStartDayOffset(getContext())));
         mViewPager.setAdapter(mPagerAdapter);
         mViewPager.addOnPageChangeListener(this);
         mViewPager.setOffscreenPageLimit(MAX_FRAGMENTS_KEEP);
@@ -124,35 +130,33 @@ public class StatisticsFragment extends Fragment  implements ViewPager.OnPageCha
         }
     }
 
+    /**
+     * Pages through all weeks from the first session's week to the current one, each one
+     * numbered by its week based year, so years with 53 weeks are taken care of.
+     */
     public class StatisticsPagerAdapter extends FragmentPagerAdapter {
 
-        private static final int WEEKS_PER_YEAR = 52; // yeah, 2020 will have 53, FIXME by then..
-
-        private final int currentWeek;
-        private final int firstWeek;
-        private final int firstYear;
+        /** Monday of the first session's week, i.e. first page, at midnight */
+        private final DateTime firstWeek;
+        private final int weekCount;
 
         StatisticsPagerAdapter(FragmentManager fm) {
             super(fm);
 
             CallSession callSession = CallSession.getFirstTimestamp();
+            DateTime dtNow = DateTime.now();
             DateTime dtSession = (callSession != null)
                     ? new DateTime(callSession.timestamp)
-                    : null;
+                    : dtNow;
 
-            DateTime dtNow = DateTime.now();
-
-            firstYear   = (dtSession != null) ? dtSession.getYear() : dtNow.getYear();
-            currentWeek = dtNow.getWeekOfWeekyear() + getYearWeekOffset(dtNow.getYear());
-            firstWeek   = (dtSession != null) ? dtSession.getWeekOfWeekyear() : currentWeek;
+            firstWeek = dtSession.weekOfWeekyear().roundFloorCopy();
+            weekCount = Weeks.weeksBetween(firstWeek.toLocalDate(),
+                    dtNow.weekOfWeekyear().roundFloorCopy().toLocalDate()).getWeeks() + 1;
         }
 
         private WeekYear getWeekYearFromPosition(int position) {
-            int absoluteWeek = firstWeek + position;
-            int year = getYearByAbsoluteWeek(absoluteWeek);
-            int week = absoluteWeek - getYearWeekOffset(year);
-
-            return new WeekYear(week, year);
+            DateTime week = firstWeek.plusWeeks(position);
+            return new WeekYear(week.getWeekOfWeekyear(), week.getWeekyear());
         }
 
         @Override
@@ -163,7 +167,7 @@ public class StatisticsFragment extends Fragment  implements ViewPager.OnPageCha
 
         @Override
         public int getCount() {
-            return currentWeek - firstWeek + 1;
+            return weekCount;
         }
 
         @Override
@@ -171,14 +175,5 @@ public class StatisticsFragment extends Fragment  implements ViewPager.OnPageCha
             WeekYear weekYear = getWeekYearFromPosition(position);
             return getString(R.string.stats_week_title, weekYear.week, weekYear.year);
         }
-
-        private int getYearWeekOffset(int year) {
-            int offset = year - firstYear;
-            return (offset > 0) ? offset * WEEKS_PER_YEAR : 0;
-        }
-
-        private int getYearByAbsoluteWeek(int week) {
-            return firstYear + ((week - 1) / WEEKS_PER_YEAR);
-        }
     }
 }
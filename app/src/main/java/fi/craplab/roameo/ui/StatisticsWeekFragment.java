@@ -61,6 +61,8 @@ import lecho.lib.hellocharts.model.Viewport;
 import lecho.lib.hellocharts.view.LineChartView;
 import fi.craplab.roameo.R;
 import fi.craplab.roameo.RoameoEvents;
+import fi.craplab.roameo.data.WeekStatData;
+import fi.craplab.roameo.data.WeekStatsLoader;
 import fi.craplab.roameo.model.CallSession;
 import fi.craplab.roameo.util.DebugLog;
 import fi.craplab.roameo.util.Utils;
@@ -68,8 +70,11 @@ import fi.craplab.roameo.util.Utils;
 /**
  * Draw statistic graphs about steps, duration and pace for each day of a week and display
  * each day's call sessions.
+ *
+ * The week's data comes from the history loaded in the background by {@link WeekStatsLoader},
+ * until that's done the graph shows a flat placeholder line.
  */
-public class StatisticsWeekFragment extends Fragment {
+public class StatisticsWeekFragment extends Fragment implements WeekStatsLoader.Callback {
     private static final String TAG = StatisticsWeekFragment.class.getSimpleName();
 
     private static final String ARG_WEEK_NUMBER = "week_number";
@@ -84,6 +89,10 @@ public class StatisticsWeekFragment extends Fragment {
     private int mWeekNumber;
     private int mWeekYear;
     private int mDisplayMode = MODE_STEPS;
+    private DateTime mWeekStart;
+    /** Week start of the latest load, becomes {@link #mWeekStart} along with its data */
+    private DateTime mLoadingWeekStart;
+    private WeekStatData mWeekStatData;
 
     private final List<PointValue> mStepValues     = new ArrayList<>();
     private final List<PointValue> mDurationValues = new ArrayList<>();
@@ -131,16 +140,35 @@ public class StatisticsWeekFragment extends Fragment {
         LocalBroadcastManager.getInstance(getActivity())
                 .registerReceiver(mDataUpdateBroadcastReceiver, intentFilter);
 
-        setupData();
+        mWeekStart = getFirstDayOfWeek(getContext(), mWeekNumber, mWeekYear);
+        mLoadingWeekStart = mWeekStart;
+        setupAxisValues();
+        WeekStatsLoader.load(mLoadingWeekStart, this);
     }
 
     @Override
     public void onDestroy() {
+        WeekStatsLoader.removeCallback(this);
         LocalBroadcastManager.getInstance(getActivity())
                 .unregisterReceiver(mDataUpdateBroadcastReceiver);
         super.onDestroy();
     }
 
+    @Override
+    public void onWeekStatsLoaded(DateTime weekStart, WeekStatData weekStatData) {
+        if (!weekStart.equals(mLoadingWeekStart)) {
+            // week start setting changed in the meantime, another load is on its way
+            return;
+        }
+
+        mWeekStart = weekStart;
+        setupAxisValues();
+        setupData(weekStatData);
+        if (mChartView != null && isAdded()) {
+            updateData();
+        }
+    }
+
     @Nullable
     @Override
     public View onCreateView(LayoutInflater inflater,
@@ -178,7 +206,9 @@ public class StatisticsWeekFragment extends Fragment {
             @Override
             public void onTabSelected(TabLayout.Tab tab) {
                 mDisplayMode = tab.getPosition();
-                updateData();
+                if (mWeekStatData != null) {
+                    updateData();
+                }
             }
 
             @Override
@@ -191,7 +221,9 @@ public class StatisticsWeekFragment extends Fragment {
         });
 
         mChartView.setLineChartData(getData());
-        updateData();
+        if (mWeekStatData != null) {
+            updateData();
+        }
 
         mChartView.setDataAnimationListener(new ChartAnimationListener() {
             @Override
@@ -210,7 +242,12 @@ public class StatisticsWeekFragment extends Fragment {
                 DebugLog.d(TAG, String.format(Locale.US, "onValueSelected(%d, %d, %s)",
                         lineIndex, pointIndex, pointValue));
 
-                DateTime dateTime = getFirstDayOfWeek().plusDays(pointIndex);
+                if (mWeekStatData == null) {
+                    // still showing the placeholder
+                    return;
+                }
+
+                DateTime dateTime = mWeekStart.plusDays(pointIndex);
 
                 mInstructionsTextView.setVisibility(View.GONE);
                 mDayDetailsTextView.setText(
@@ -242,55 +279,66 @@ public class StatisticsWeekFragment extends Fragment {
                     break;
             }
 
-            // redraw statistics
-            clearData();
-            setupData();
-            updateData();
+            // redraw statistics, keeping the old week on display until the new one is loaded
+            mLoadingWeekStart = getFirstDayOfWeek(getContext(), mWeekNumber, mWeekYear);
+            WeekStatsLoader.load(mLoadingWeekStart, StatisticsWeekFragment.this);
         }
     };
 
     /**
-     * Get {@link DateTime} of week's first day at midnight, considering "week starts at" setting.
+     * Get {@link DateTime} of a week's first day at midnight, considering "week starts at"
+     * setting.
      *
+     * @param context Context to read the setting from
+     * @param weekNumber Week of the week based year
+     * @param weekYear Week based year
      * @return {@link DateTime} at first day of week.
      */
-    private DateTime getFirstDayOfWeek() {
+    static DateTime getFirstDayOfWeek(Context context, int weekNumber, int weekYear) {
         return new DateTime()
-                .withYear(mWeekYear)
-                .withWeekOfWeekyear(mWeekNumber)
+                .withWeekyear(weekYear)
+                .withWeekOfWeekyear(weekNumber)
                 .weekOfWeekyear()
                 .roundFloorCopy()
-                .plusDays(SettingsActivity.weekStartDayOffset(getContext()));
+                .plusDays(SettingsActivity.weekStartDayOffset(context));
     }
 
-    private void clearData() {
+    /**
+     * Set up the day name and date labels of {@link #mWeekStart}, which don't need any data
+     * to be loaded.
+     */
+    private void setupAxisValues() {
         mDayNameValues.clear();
         mDateValues.clear();
-        mStepValues.clear();
-        mDurationValues.clear();
-        mPaceValues.clear();
+
+        for (int day = 0; day < DateTimeConstants.DAYS_PER_WEEK; day++) {
+            DateTime dt = mWeekStart.plusDays(day);
+            mDayNameValues.add(day, new AxisValue(day).setLabel(dt.dayOfWeek().getAsShortText()));
+            mDateValues.add(day, new AxisValue(day).setLabel(
+                    String.format(Locale.US,"%02d/%02d", dt.getDayOfMonth(), dt.getMonthOfYear())));
+        }
     }
 
-    private void setupData() {
-        DateTime dateTime = getFirstDayOfWeek();
+    private void setupData(WeekStatData weekStatData) {
         DebugLog.d(TAG, String.format(Locale.US,
                 "Setting up data for week %2d %d starting %s",
-                mWeekNumber, mWeekYear, dateTime));
+                mWeekNumber, mWeekYear, mWeekStart));
 
-        for (int day = 0; day < DateTimeConstants.DAYS_PER_WEEK; day++) {
-            DateTime dt = dateTime.plusDays(day);
+        mWeekStatData = weekStatData;
+        mStepValues.clear();
+        mDurationValues.clear();
+        mPaceValues.clear();
+
+        for (int day = 0; day < weekStatData.getDayCount(); day++) {
+            WeekStatData.Period dayStats = weekStatData.getDay(day);
 
-            long steps = CallSession.getStepsForDay(dt.getMillis());
-            float duration = CallSession.getDurationsForDay(dt.getMillis()) / 1000;
-            float pace = (duration > 0) ? (steps / (duration / 60f)) : 0.0f;
+            long steps = dayStats.getStepSum();
+            float duration = dayStats.getDurationSum() / 1000;
+            float pace = dayStats.getPace();
 
             mStepValues.add(new PointValue(day, steps));
             mDurationValues.add(new PointValue(day, duration));
             mPaceValues.add(new PointValue(day, pace));
-
-            mDayNameValues.add(day, new AxisValue(day).setLabel(dt.dayOfWeek().getAsShortText()));
-            mDateValues.add(day, new AxisValue(day).setLabel(
-                    String.format(Locale.US,"%02d/%02d", dt.getDayOfMonth(), dt.getMonthOfYear())));
         }
     }
 
@@ -326,6 +374,7 @@ public class StatisticsWeekFragment extends Fragment {
             }
             line.setColor(color);
             line.setFormatter(valueFormatter);
+            line.setHasLabels(true);
         }
 
         mChartView.startDataAnimation(ANIMATION_DURATION_MS);
@@ -363,7 +412,8 @@ public class StatisticsWeekFragment extends Fragment {
 
         line.setColor(ContextCompat.getColor(getContext(), R.color.week_stat_chart_lines));
         line.setHasPoints(true);
-        line.setHasLabels(true);
+        // placeholder until data is loaded, see updateData()
+        line.setHasLabels(false);
         line.setFilled(false);
         line.setPointRadius(8);
         line.setStrokeWidth(4);
@@ -26,6 +26,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
@@ -43,7 +44,12 @@ import java.util.Locale;
 import fi.craplab.roameo.R;
 import fi.craplab.roameo.RoameoEvents;
 import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.DailyStats;
+import fi.craplab.roameo.model.SessionAggregate;
+import fi.craplab.roameo.model.StepHistogram;
+import fi.craplab.roameo.model.SummaryStats;
 import fi.craplab.roameo.util.DebugLog;
+import fi.craplab.roameo.util.UiUtils;
 import fi.craplab.roameo.util.Utils;
 
 /**
@@ -62,9 +68,13 @@ public class SummaryFragment extends Fragment {
     private TextView mAvgStepCountTextView;
     private TextView mAvgDurationTextView;
     private TextView mAvgPaceTextView;
+    private TextView mPacePercentilesTextView;
+    private TextView mMinutePercentilesTextView;
     private TextView mMaxStepCountTextView;
     private TextView mMaxDurationTextView;
 
+    private SummaryTask mSummaryTask;
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -85,6 +95,9 @@ public class SummaryFragment extends Fragment {
 
     @Override
     public void onDestroy() {
+        if (mSummaryTask != null) {
+            mSummaryTask.cancel(false);
+        }
         LocalBroadcastManager.getInstance(getContext()).unregisterReceiver(mDataUpdateBroadcastReceiver);
         super.onDestroy();
     }
@@ -104,6 +117,8 @@ public class SummaryFragment extends Fragment {
         mAvgStepCountTextView = (TextView) rootView.findViewById(R.id.average_step_count);
         mAvgDurationTextView = (TextView) rootView.findViewById(R.id.average_duration);
         mAvgPaceTextView = (TextView) rootView.findViewById(R.id.average_pace);
+        mPacePercentilesTextView = (TextView) rootView.findViewById(R.id.pace_percentiles);
+        mMinutePercentilesTextView = (TextView) rootView.findViewById(R.id.minute_percentiles);
         mMaxStepCountTextView = (TextView) rootView.findViewById(R.id.max_step_count);
         mMaxDurationTextView = (TextView) rootView.findViewById(R.id.max_duration);
 
@@ -132,16 +147,22 @@ public class SummaryFragment extends Fragment {
     };
 
     private void setData() {
-        int sessionCount = CallSession.getSessions().size();
-        long totalSteps = CallSession.getTotalSteps();
-        long totalDuration = CallSession.getTotalDurations();
+        if (mSummaryTask != null) {
+            mSummaryTask.cancel(false);
+        }
+        mSummaryTask = new SummaryTask();
+        mSummaryTask.execute();
+    }
 
-        mSessionCountTextView.setText(String.valueOf(sessionCount));
-        mStepCountTextView.setText(String.valueOf(totalSteps));
-        mDurationTextView.setText(Utils.millisToTimeString(totalDuration));
+    private void setData(SummaryTask summary) {
+        SessionAggregate aggregate = summary.mAggregate;
 
-        long avgSteps = (sessionCount > 0) ? totalSteps / sessionCount : 0;
-        long avgDuration = (sessionCount > 0) ? totalDuration / sessionCount : 0;
+        mSessionCountTextView.setText(String.valueOf(aggregate.sessionCount));
+        mStepCountTextView.setText(String.valueOf(aggregate.stepSum));
+        mDurationTextView.setText(Utils.millisToTimeString(aggregate.durationSum));
+
+        long avgSteps = aggregate.getAverageSteps();
+        long avgDuration = aggregate.getAverageDuration();
         mAvgStepCountTextView.setText(String.valueOf(avgSteps));
         mAvgDurationTextView.setText(Utils.millisToTimeString(avgDuration));
 
@@ -149,10 +170,38 @@ public class SummaryFragment extends Fragment {
         double avgPace = (minutes > 0) ? avgSteps / minutes : 0;
         mAvgPaceTextView.setText(String.format(Locale.US, "%.2f", avgPace));
 
-        long maxSteps = CallSession.getMaxSteps();
-        long maxDuration = CallSession.getMaxDuration();
-        mMaxStepCountTextView.setText(String.valueOf(maxSteps));
-        mMaxDurationTextView.setText(Utils.millisToTimeString(maxDuration));
+        UiUtils.setPercentiles(getContext(), mPacePercentilesTextView, summary.mPaceHistogram);
+        UiUtils.setPercentiles(getContext(), mMinutePercentilesTextView,
+                summary.mMinuteHistogram);
+
+        mMaxStepCountTextView.setText(String.valueOf(aggregate.maxSteps));
+        mMaxDurationTextView.setText(Utils.millisToTimeString(aggregate.maxDuration));
+    }
+
+    /**
+     * Loads the summary off the main thread. Usually that's a single stored row, but it may
+     * have to be rebuilt from all sessions, and the histograms of every day ever recorded
+     * are merged each time.
+     */
+    private class SummaryTask extends AsyncTask<Void, Void, SummaryTask> {
+        private SessionAggregate mAggregate;
+        private StepHistogram mPaceHistogram;
+        private StepHistogram mMinuteHistogram;
+
+        @Override
+        protected SummaryTask doInBackground(Void... params) {
+            mAggregate = SummaryStats.get();
+            mPaceHistogram = DailyStats.getPaceHistogram();
+            mMinuteHistogram = DailyStats.getMinuteHistogram();
+            return this;
+        }
+
+        @Override
+        protected void onPostExecute(SummaryTask summary) {
+            if (isAdded()) {
+                setData(summary);
+            }
+        }
     }
 
     private void putMeInOnClickCallbackLater() {
@@ -23,19 +23,36 @@ package fi.craplab.roameo.ui.view;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.v4.app.DialogFragment;
+import android.support.v4.content.ContextCompat;
 import android.view.View;
 import android.widget.TextView;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.LocalDate;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 
+import lecho.lib.hellocharts.model.Axis;
+import lecho.lib.hellocharts.model.AxisValue;
+import lecho.lib.hellocharts.model.Column;
+import lecho.lib.hellocharts.model.ColumnChartData;
+import lecho.lib.hellocharts.model.SubcolumnValue;
+import lecho.lib.hellocharts.view.ColumnChartView;
 import fi.craplab.roameo.R;
-import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.data.WeekStatData;
+import fi.craplab.roameo.data.WeekStatsCruncher;
+import fi.craplab.roameo.data.WeekStatsLoader;
+import fi.craplab.roameo.model.DailyStats;
+import fi.craplab.roameo.model.StepHistogram;
 import fi.craplab.roameo.ui.SettingsActivity;
+import fi.craplab.roameo.util.UiUtils;
 import fi.craplab.roameo.util.Utils;
 
 /**
@@ -54,8 +71,14 @@ public class StatisticsDialog extends DialogFragment {
     private TextView mAvgStepCountTextView;
     private TextView mAvgDurationTextView;
     private TextView mAvgPaceTextView;
+    private TextView mPacePercentilesTextView;
+    private TextView mMinutePercentilesTextView;
     private TextView mMaxStepCountTextView;
     private TextView mMaxDurationTextView;
+    private TextView mMaxMinuteStepsTextView;
+    private ColumnChartView mMinuteDistributionChart;
+
+    private LoadTask mLoadTask;
 
     public static StatisticsDialog newInstance(int week, int year) {
         StatisticsDialog dialog = new StatisticsDialog();
@@ -84,10 +107,24 @@ public class StatisticsDialog extends DialogFragment {
         mAvgStepCountTextView = (TextView) rootView.findViewById(R.id.average_step_count);
         mAvgDurationTextView = (TextView) rootView.findViewById(R.id.average_duration);
         mAvgPaceTextView = (TextView) rootView.findViewById(R.id.average_pace);
+        mPacePercentilesTextView = (TextView) rootView.findViewById(R.id.pace_percentiles);
+        mMinutePercentilesTextView = (TextView) rootView.findViewById(R.id.minute_percentiles);
         mMaxStepCountTextView = (TextView) rootView.findViewById(R.id.max_step_count);
         mMaxDurationTextView = (TextView) rootView.findViewById(R.id.max_duration);
+        mMaxMinuteStepsTextView = (TextView) rootView.findViewById(R.id.max_minute_steps);
+        mMinuteDistributionChart =
+                (ColumnChartView) rootView.findViewById(R.id.minute_distribution);
+
+        DateTime weekStart = new DateTime()
+                .withWeekyear(mWeekYear)
+                .withWeekOfWeekyear(mWeekNumber)
+                .weekOfWeekyear()
+                .roundFloorCopy()
+                .plusDays(SettingsActivity.weekStartDayOffset(getContext()));
+
+        mLoadTask = new LoadTask(weekStart);
+        mLoadTask.execute();
 
-        setData();
         builder.setNegativeButton(getString(R.string.action_close), null);
         builder.setView(rootView);
 
@@ -97,35 +134,96 @@ public class StatisticsDialog extends DialogFragment {
         return dialog;
     }
 
-    private void setData() {
-        long weekStartTimestamp = new DateTime()
-                .withYear(mWeekYear)
-                .withWeekOfWeekyear(mWeekNumber)
-                .weekOfWeekyear()
-                .roundFloorCopy()
-                .plusDays(SettingsActivity.weekStartDayOffset(getContext()))
-                .getMillis();
-
-        int sessionCount = CallSession.getSessionsForWeek(weekStartTimestamp).size();
-        long totalSteps = CallSession.getStepsForWeek(weekStartTimestamp);
-        long totalDuration = CallSession.getDurationsForWeek(weekStartTimestamp);
-
-        mSessionCountTextView.setText(String.valueOf(sessionCount));
-        mStepCountTextView.setText(String.valueOf(totalSteps));
-        mDurationTextView.setText(Utils.millisToTimeString(totalDuration));
-
-        long avgSteps = (sessionCount > 0) ? totalSteps / sessionCount : 0;
-        long avgDuration = (sessionCount > 0) ? totalDuration / sessionCount : 0;
-        mAvgStepCountTextView.setText(String.valueOf(avgSteps));
-        mAvgDurationTextView.setText(Utils.millisToTimeString(avgDuration));
-
-        double minutes = Utils.millisToMinutes(avgDuration);
-        double avgPace = (minutes > 0) ? avgSteps / minutes : 0;
-        mAvgPaceTextView.setText(String.format(Locale.US, "%.2f", avgPace));
-
-        long maxSteps = CallSession.getMaxStepsForWeek(weekStartTimestamp);
-        long maxDuration = CallSession.getMaxDurationForWeek(weekStartTimestamp);
-        mMaxStepCountTextView.setText(String.valueOf(maxSteps));
-        mMaxDurationTextView.setText(Utils.millisToTimeString(maxDuration));
+    @Override
+    public void onDestroy() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+        }
+        super.onDestroy();
+    }
+
+    private void setData(LoadTask result) {
+        WeekStatData.Period week = result.mWeekStatData.getWeek();
+
+        mSessionCountTextView.setText(String.valueOf(week.getSessionCount()));
+        mStepCountTextView.setText(String.valueOf(week.getStepSum()));
+        mDurationTextView.setText(Utils.millisToTimeString(week.getDurationSum()));
+
+        mAvgStepCountTextView.setText(String.valueOf(week.getAvgSteps()));
+        mAvgDurationTextView.setText(Utils.millisToTimeString(week.getAvgDuration()));
+        mAvgPaceTextView.setText(String.format(Locale.US, "%.2f", week.getPace()));
+
+        UiUtils.setPercentiles(getContext(), mPacePercentilesTextView, result.mPaceHistogram);
+        UiUtils.setPercentiles(getContext(), mMinutePercentilesTextView, result.mMinuteHistogram);
+
+        mMaxStepCountTextView.setText(String.valueOf(week.getMaxSteps()));
+        mMaxDurationTextView.setText(Utils.millisToTimeString(week.getMaxDuration()));
+
+        mMaxMinuteStepsTextView.setText(String.valueOf(result.mMinuteData.getMaxMinuteSteps()));
+        setMinuteDistribution(result.mMinuteData.getMinuteDistribution());
+    }
+
+    private void setMinuteDistribution(int[] distribution) {
+        int color = ContextCompat.getColor(getContext(), R.color.week_stat_steps);
+        List<Column> columns = new ArrayList<>(distribution.length);
+        List<AxisValue> axisValues = new ArrayList<>(distribution.length);
+
+        for (int bucket = 0; bucket < distribution.length; bucket++) {
+            List<SubcolumnValue> values = new ArrayList<>(1);
+            values.add(new SubcolumnValue(distribution[bucket], color));
+            columns.add(new Column(values));
+            // label every other bucket by its lowest step count, the last one holds all above
+            if (bucket % 2 == 0 || bucket == distribution.length - 1) {
+                int steps = bucket * WeekStatData.DISTRIBUTION_BUCKET_SIZE;
+                axisValues.add(new AxisValue(bucket).setLabel(
+                        (bucket == distribution.length - 1) ? steps + "+" : String.valueOf(steps)));
+            }
+        }
+
+        Axis axis = new Axis(axisValues);
+        axis.setTextColor(ContextCompat.getColor(getContext(), R.color.week_stat_axes));
+        axis.setHasSeparationLine(false);
+
+        ColumnChartData data = new ColumnChartData(columns);
+        data.setAxisXBottom(axis);
+        mMinuteDistributionChart.setColumnChartData(data);
+    }
+
+    /**
+     * Loads the week's statistics off the main thread.
+     *
+     * The totals come from {@link WeekStatsLoader}, usually without any query as its history
+     * is loaded along the statistics screen. Only the minute distribution needs the week's
+     * single minutes, so {@link WeekStatsCruncher} looks into them for that.
+     */
+    private class LoadTask extends AsyncTask<Void, Void, LoadTask> {
+        private final DateTime mWeekStart;
+        private WeekStatData mWeekStatData;
+        private WeekStatData mMinuteData;
+        private StepHistogram mPaceHistogram;
+        private StepHistogram mMinuteHistogram;
+
+        LoadTask(DateTime weekStart) {
+            mWeekStart = weekStart;
+        }
+
+        @Override
+        protected LoadTask doInBackground(Void... params) {
+            mWeekStatData = WeekStatsLoader.get(mWeekStart);
+            mMinuteData = new WeekStatsCruncher(mWeekStart).getWeekStatData();
+
+            LocalDate firstDay = mWeekStart.toLocalDate();
+            LocalDate lastDay = firstDay.plusDays(DateTimeConstants.DAYS_PER_WEEK - 1);
+            mPaceHistogram = DailyStats.getPaceHistogram(firstDay, lastDay);
+            mMinuteHistogram = DailyStats.getMinuteHistogram(firstDay, lastDay);
+            return this;
+        }
+
+        @Override
+        protected void onPostExecute(LoadTask result) {
+            if (isAdded()) {
+                setData(result);
+            }
+        }
     }
 }
@@ -32,6 +32,16 @@ import fi.craplab.roameo.BuildConfig;
 public final class DebugLog {
     private static final boolean logEnabled = BuildConfig.DebugLogOutput;
 
+    /**
+     * Check if debug and info output is enabled.
+     * Use this to skip formatting log messages on hot paths when they would be dropped anyway.
+     *
+     * @return true if debug log output is enabled
+     */
+    public static boolean isEnabled() {
+        return logEnabled;
+    }
+
     public static void d(String tag, String message) {
         if (logEnabled) {
             Log.d(tag, message);
@@ -22,14 +22,34 @@
 package fi.craplab.roameo.util;
 
 import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Debug;
 
+import com.activeandroid.ActiveAndroid;
+import com.activeandroid.Cache;
 import com.activeandroid.query.Delete;
+import com.activeandroid.query.Select;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 
 import fi.craplab.roameo.RoameoEvents;
 import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.CallSessionDao;
+import fi.craplab.roameo.model.DailyStats;
 import fi.craplab.roameo.model.MinuteSteps;
+import fi.craplab.roameo.model.MinuteStepsCodec;
+import fi.craplab.roameo.model.SessionListeners;
+import fi.craplab.roameo.model.SummaryStats;
+import fi.craplab.roameo.ui.SettingsActivity;
 
 /**
  *
@@ -51,6 +71,9 @@ public class TestDbUtils {
 
     public static CallSession createRandomCallSession(Context context) {
         new Delete().from(CallSession.class).execute();
+        new Delete().from(DailyStats.class).execute();
+        SummaryStats.invalidate();
+        SessionListeners.notifyChanged();
         for (int i = 0; i < 16; i++) {
             x(context);
         }
@@ -70,9 +93,10 @@ public class TestDbUtils {
         //int index = (int) (Math.random() * 6);
         //callSession.phoneNumber = (index < names.length ? names[index] : getRandomNumber());
         callSession.isIncoming = ((int) (Math.random() * 2)) == 1;
-        callSession.save();
 
         int stepSum = 0;
+        int[] minuteArray = new int[minutes + 1];
+        int[] stepArray = new int[minutes + 1];
         for (int i = 0; i <= minutes; i++) {
             int steps = (int) (Math.random() * 50);
             if (steps % 2 == 1) {
@@ -81,19 +105,614 @@ public class TestDbUtils {
             if (steps % 10 > 7) {
                 steps += (int) (Math.random() * 20 + 10);
             }
-            MinuteSteps minuteSteps = new MinuteSteps();
-            minuteSteps.callSession = callSession;
-            minuteSteps.minute = i;
-            minuteSteps.steps = steps;
-            minuteSteps.save();
+            minuteArray[i] = i;
+            stepArray[i] = steps;
             stepSum += steps;
         }
 
         callSession.stepCount = stepSum;
-        callSession.save();
+        MinuteSteps.saveAll(callSession, minuteArray, stepArray,
+                SettingsActivity.compactMinuteStorage(context));
 
         DebugLog.d("TEST UTIL", "saving CallSession " + callSession);
         RoameoEvents.send(context, RoameoEvents.ACTION_CALL_DATA_UPDATED);
         return callSession;
     }
+
+    /**
+     * Compare storing a call session's minutes one {@link MinuteSteps#save()} at a time with
+     * {@link MinuteSteps#saveAll(CallSession, int[], int[])}, for 10, 100 and 1000 minutes.
+     * Results are written to the log, all sessions created here are deleted again.
+     *
+     * Accesses the database, so don't call this from the main thread.
+     */
+    public static void benchmarkMinuteStepsInsert() {
+        final int runs = 5;
+
+        for (int minutes : new int[] {10, 100, 1000}) {
+            int[] minuteArray = new int[minutes];
+            int[] stepArray = new int[minutes];
+            for (int i = 0; i < minutes; i++) {
+                minuteArray[i] = i;
+                stepArray[i] = (int) (Math.random() * 100) + 1;
+            }
+
+            long singleNanos = 0;
+            long bulkNanos = 0;
+
+            for (int run = 0; run < runs; run++) {
+                long start = System.nanoTime();
+                CallSession callSession = createBenchmarkSession(minutes);
+                callSession.save();
+                for (int i = 0; i < minutes; i++) {
+                    MinuteSteps minuteSteps = new MinuteSteps();
+                    minuteSteps.callSession = callSession;
+                    minuteSteps.minute = minuteArray[i];
+                    minuteSteps.steps = stepArray[i];
+                    minuteSteps.save();
+                }
+                singleNanos += System.nanoTime() - start;
+                callSession.delete();
+
+                start = System.nanoTime();
+                callSession = createBenchmarkSession(minutes);
+                MinuteSteps.saveAll(callSession, minuteArray, stepArray);
+                bulkNanos += System.nanoTime() - start;
+                CallSession.deleteSession(callSession.getId());
+            }
+
+            DebugLog.i("TEST UTIL", String.format(Locale.US,
+                    "%4d minutes: save() %8.2f ms, saveAll() %8.2f ms (average of %d runs)",
+                    minutes, singleNanos / 1e6 / runs, bulkNanos / 1e6 / runs, runs));
+        }
+    }
+
+    private static CallSession createBenchmarkSession(int minutes) {
+        CallSession callSession = new CallSession();
+        callSession.timestamp = System.currentTimeMillis();
+        callSession.duration = minutes * 60 * 1000;
+        return callSession;
+    }
+
+    private static final String INDEX_BENCHMARK_DB = "index_benchmark.db";
+    private static final int INDEX_BENCHMARK_SESSIONS = 100000;
+    private static final int INDEX_BENCHMARK_RUNS = 20;
+    private static final long INDEX_BENCHMARK_SEED = 42;
+
+    /**
+     * Compare query plans and latencies of the most common call session queries with and
+     * without the indexes added in database version 2.
+     *
+     * Runs on a separate database, filled with {@value #INDEX_BENCHMARK_SESSIONS} call sessions
+     * and their minutes generated from a fixed seed, so results are reproducible and the actual
+     * user data is left alone. The indexes are created from the same migration script that's
+     * used for the real database. Results are written to the log.
+     *
+     * With the indexes in place, each query plan is checked to actually use the index meant
+     * for it, and any query that doesn't is logged as error.
+     *
+     * Accesses the database, so don't call this from the main thread.
+     *
+     * @param context Context
+     * @return {@code true} if all queries use their index after the migration
+     */
+    public static boolean benchmarkIndexes(Context context) {
+        context.deleteDatabase(INDEX_BENCHMARK_DB);
+        SQLiteDatabase db = context.openOrCreateDatabase(INDEX_BENCHMARK_DB,
+                Context.MODE_PRIVATE, null);
+
+        try {
+            long firstTimestamp = createIndexBenchmarkData(db);
+            logIndexBenchmarkQueries(db, firstTimestamp, false);
+            executeMigrationScript(context, db, 2);
+            return logIndexBenchmarkQueries(db, firstTimestamp, true);
+        } catch (IOException e) {
+            DebugLog.e("TEST UTIL", "Cannot read migration script", e);
+            return false;
+        } finally {
+            db.close();
+            context.deleteDatabase(INDEX_BENCHMARK_DB);
+        }
+    }
+
+    /**
+     * Create the version 1 tables and fill them with synthetic call sessions, one every
+     * few hours, each with up to 30 minutes of steps.
+     *
+     * @return Timestamp of the first session
+     */
+    private static long createIndexBenchmarkData(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE call_session (Id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "timestamp INTEGER, phone_number TEXT, incoming INTEGER, duration INTEGER, "
+                + "step_count INTEGER, google_fit_id TEXT)");
+        db.execSQL("CREATE TABLE minute_steps (Id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "call_session INTEGER REFERENCES call_session(Id) ON DELETE CASCADE, "
+                + "minute INTEGER, steps INTEGER)");
+
+        Random random = new Random(INDEX_BENCHMARK_SEED);
+        long firstTimestamp = System.currentTimeMillis()
+                - INDEX_BENCHMARK_SESSIONS * 3 * 3600 * 1000L;
+        long timestamp = firstTimestamp;
+
+        SQLiteStatement sessionInsert = db.compileStatement("INSERT INTO call_session "
+                + "(timestamp, incoming, duration, step_count) VALUES (?, ?, ?, ?)");
+        SQLiteStatement minuteInsert = db.compileStatement(
+                "INSERT INTO minute_steps (call_session, minute, steps) VALUES (?, ?, ?)");
+
+        long start = System.nanoTime();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < INDEX_BENCHMARK_SESSIONS; i++) {
+                timestamp += random.nextInt(6 * 3600 * 1000);
+                int minutes = random.nextInt(30) + 1;
+                int[] steps = new int[minutes];
+                int stepSum = 0;
+                for (int minute = 0; minute < minutes; minute++) {
+                    steps[minute] = random.nextInt(100);
+                    stepSum += steps[minute];
+                }
+
+                sessionInsert.bindLong(1, timestamp);
+                sessionInsert.bindLong(2, random.nextInt(2));
+                sessionInsert.bindLong(3, minutes * 60 * 1000);
+                sessionInsert.bindLong(4, stepSum);
+                long id = sessionInsert.executeInsert();
+
+                for (int minute = 0; minute < minutes; minute++) {
+                    minuteInsert.bindLong(1, id);
+                    minuteInsert.bindLong(2, minute);
+                    minuteInsert.bindLong(3, steps[minute]);
+                    minuteInsert.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            sessionInsert.close();
+            minuteInsert.close();
+        }
+
+        DebugLog.i("TEST UTIL", String.format(Locale.US, "Created %d sessions in %.0f ms",
+                INDEX_BENCHMARK_SESSIONS, (System.nanoTime() - start) / 1e6));
+        return firstTimestamp;
+    }
+
+    /**
+     * Run and time the benchmark queries, and log them along their query plans.
+     *
+     * @param withIndexes {@code true} if the indexes are created and the plans should use them
+     * @return {@code true} if {@code withIndexes} is set and every plan uses the query's index
+     */
+    private static boolean logIndexBenchmarkQueries(SQLiteDatabase db, long firstTimestamp,
+                                                    boolean withIndexes) {
+        // a week and a day somewhere in the middle of the history, and a session in there
+        String weekStart = String.valueOf(firstTimestamp + INDEX_BENCHMARK_SESSIONS * 3600 * 1000L);
+        String weekEnd = String.valueOf(Long.parseLong(weekStart) + Utils.MILLIS_PER_WEEK);
+        String dayEnd = String.valueOf(Long.parseLong(weekStart) + Utils.MILLIS_PER_DAY);
+        String sessionId = String.valueOf(INDEX_BENCHMARK_SESSIONS / 2);
+
+        // index expected in the plan, query, query arguments
+        String[][] queries = {
+                {"index_call_session_timestamp",
+                        "SELECT * FROM call_session WHERE timestamp >= ? AND timestamp <= ? "
+                        + "ORDER BY timestamp ASC", weekStart, weekEnd},
+                {"index_call_session_timestamp",
+                        "SELECT SUM(step_count) FROM call_session WHERE timestamp >= ? "
+                        + "AND timestamp < ?", weekStart, dayEnd},
+                {"index_call_session_timestamp",
+                        "SELECT * FROM call_session ORDER BY timestamp ASC LIMIT 1"},
+                {"index_minute_steps_call_session",
+                        "SELECT * FROM minute_steps WHERE call_session = ?", sessionId},
+        };
+
+        boolean indexesUsed = withIndexes;
+        DebugLog.i("TEST UTIL", "Queries " + (withIndexes ? "with" : "without") + " indexes:");
+        for (String[] query : queries) {
+            String index = query[0];
+            String sql = query[1];
+            String[] args = new String[query.length - 2];
+            System.arraycopy(query, 2, args, 0, args.length);
+
+            StringBuilder plan = new StringBuilder();
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            while (cursor.moveToNext()) {
+                plan.append(plan.length() > 0 ? "; " : "").append(cursor.getString(3));
+            }
+            cursor.close();
+
+            long start = System.nanoTime();
+            int rows = 0;
+            for (int run = 0; run < INDEX_BENCHMARK_RUNS; run++) {
+                cursor = db.rawQuery(sql, args);
+                while (cursor.moveToNext()) {
+                    rows++;
+                }
+                cursor.close();
+            }
+            double averageMs = (System.nanoTime() - start) / 1e6 / INDEX_BENCHMARK_RUNS;
+
+            DebugLog.i("TEST UTIL", String.format(Locale.US, "%7.2f ms, %4d rows  %s  [%s]",
+                    averageMs, rows / INDEX_BENCHMARK_RUNS, sql, plan));
+
+            // either "USING INDEX <name>" or "USING COVERING INDEX <name>"
+            if (withIndexes && !plan.toString().contains("INDEX " + index)) {
+                DebugLog.e("TEST UTIL", "Query doesn't use " + index + ": " + sql);
+                indexesUsed = false;
+            }
+        }
+
+        return indexesUsed;
+    }
+
+    /**
+     * Execute a migration script from the assets, one statement per line, the same way
+     * ActiveAndroid does it.
+     */
+    private static void executeMigrationScript(Context context, SQLiteDatabase db, int version)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                context.getAssets().open("migrations/" + version + ".sql")));
+        try {
+            long start = System.nanoTime();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0) {
+                    db.execSQL(line);
+                }
+            }
+            DebugLog.i("TEST UTIL", String.format(Locale.US, "Migration %d took %.0f ms",
+                    version, (System.nanoTime() - start) / 1e6));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static final String STORAGE_BENCHMARK_DB = "storage_benchmark_%s.db";
+    private static final int STORAGE_BENCHMARK_SESSIONS = 20000;
+    private static final int STORAGE_BENCHMARK_READS = 1000;
+
+    /**
+     * Compare database size and read latency of minute steps stored as one row per minute
+     * with minute steps packed inside the call session, see {@link MinuteStepsCodec}.
+     *
+     * Creates two separate databases with the same {@value #STORAGE_BENCHMARK_SESSIONS}
+     * synthetic call sessions generated from a fixed seed, each session having up to an hour
+     * of minutes with mostly, but not always, some steps. Reads the minutes of
+     * {@value #STORAGE_BENCHMARK_READS} random sessions from each. Results are written to
+     * the log.
+     *
+     * Accesses the database, so don't call this from the main thread.
+     *
+     * @param context Context
+     */
+    public static void benchmarkMinuteStorage(Context context) {
+        long[] sizes = new long[2];
+        double[] readMs = new double[2];
+
+        for (int packed = 0; packed < 2; packed++) {
+            String name = String.format(STORAGE_BENCHMARK_DB, (packed == 1) ? "packed" : "rows");
+            context.deleteDatabase(name);
+            SQLiteDatabase db = context.openOrCreateDatabase(name, Context.MODE_PRIVATE, null);
+
+            try {
+                createStorageBenchmarkData(db, packed == 1);
+                readMs[packed] = readStorageBenchmarkData(db, packed == 1);
+            } finally {
+                db.close();
+            }
+
+            sizes[packed] = context.getDatabasePath(name).length();
+            context.deleteDatabase(name);
+        }
+
+        DebugLog.i("TEST UTIL", String.format(Locale.US,
+                "%d sessions, rows: %d kB, %.2f ms per read; packed: %d kB, %.2f ms per read",
+                STORAGE_BENCHMARK_SESSIONS,
+                sizes[0] / 1024, readMs[0] / STORAGE_BENCHMARK_READS,
+                sizes[1] / 1024, readMs[1] / STORAGE_BENCHMARK_READS));
+    }
+
+    private static void createStorageBenchmarkData(SQLiteDatabase db, boolean packed) {
+        db.execSQL("CREATE TABLE call_session (Id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "timestamp INTEGER, phone_number TEXT, incoming INTEGER, duration INTEGER, "
+                + "step_count INTEGER, google_fit_id TEXT, minute_data BLOB)");
+        db.execSQL("CREATE TABLE minute_steps (Id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "call_session INTEGER REFERENCES call_session(Id) ON DELETE CASCADE, "
+                + "minute INTEGER, steps INTEGER)");
+        db.execSQL("CREATE INDEX index_minute_steps_call_session ON minute_steps (call_session)");
+
+        Random random = new Random(INDEX_BENCHMARK_SEED);
+        long timestamp = System.currentTimeMillis();
+
+        SQLiteStatement sessionInsert = db.compileStatement("INSERT INTO call_session "
+                + "(timestamp, incoming, duration, step_count, minute_data) VALUES (?, ?, ?, ?, ?)");
+        SQLiteStatement minuteInsert = db.compileStatement(
+                "INSERT INTO minute_steps (call_session, minute, steps) VALUES (?, ?, ?)");
+
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < STORAGE_BENCHMARK_SESSIONS; i++) {
+                int minutes = random.nextInt(60) + 1;
+                int[] minuteArray = new int[minutes];
+                int[] stepArray = new int[minutes];
+                int count = 0;
+                int stepSum = 0;
+                for (int minute = 0; minute < minutes; minute++) {
+                    // roughly every fifth minute without steps, same as when sitting still
+                    if (random.nextInt(5) > 0) {
+                        minuteArray[count] = minute;
+                        stepArray[count] = random.nextInt(120) + 1;
+                        stepSum += stepArray[count];
+                        count++;
+                    }
+                }
+                minuteArray = Arrays.copyOf(minuteArray, count);
+                stepArray = Arrays.copyOf(stepArray, count);
+
+                sessionInsert.bindLong(1, timestamp - i * 3600 * 1000L);
+                sessionInsert.bindLong(2, random.nextInt(2));
+                sessionInsert.bindLong(3, minutes * 60 * 1000);
+                sessionInsert.bindLong(4, stepSum);
+                if (packed) {
+                    sessionInsert.bindBlob(5, MinuteStepsCodec.encode(minuteArray, stepArray));
+                } else {
+                    sessionInsert.bindNull(5);
+                }
+                long id = sessionInsert.executeInsert();
+
+                for (int index = 0; !packed && index < count; index++) {
+                    minuteInsert.bindLong(1, id);
+                    minuteInsert.bindLong(2, minuteArray[index]);
+                    minuteInsert.bindLong(3, stepArray[index]);
+                    minuteInsert.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            sessionInsert.close();
+            minuteInsert.close();
+        }
+    }
+
+    /**
+     * Read the minutes of random sessions, the way {@link CallSession#getMinuteSteps()} does.
+     *
+     * @return Total read time in milliseconds
+     */
+    private static double readStorageBenchmarkData(SQLiteDatabase db, boolean packed) {
+        Random random = new Random(INDEX_BENCHMARK_SEED);
+        long stepSum = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < STORAGE_BENCHMARK_READS; i++) {
+            String[] id = {String.valueOf(random.nextInt(STORAGE_BENCHMARK_SESSIONS) + 1)};
+
+            if (packed) {
+                Cursor cursor = db.rawQuery("SELECT minute_data FROM call_session WHERE Id = ?", id);
+                if (cursor.moveToFirst()) {
+                    for (MinuteSteps minuteSteps : MinuteStepsCodec.decode(null, cursor.getBlob(0))) {
+                        stepSum += minuteSteps.steps;
+                    }
+                }
+                cursor.close();
+            } else {
+                Cursor cursor = db.rawQuery("SELECT minute, steps FROM minute_steps "
+                        + "WHERE call_session = ?", id);
+                while (cursor.moveToNext()) {
+                    MinuteSteps minuteSteps = new MinuteSteps();
+                    minuteSteps.minute = cursor.getInt(0);
+                    minuteSteps.steps = cursor.getInt(1);
+                    stepSum += minuteSteps.steps;
+                }
+                cursor.close();
+            }
+        }
+        double elapsed = (System.nanoTime() - start) / 1e6;
+
+        DebugLog.d("TEST UTIL", "Read " + stepSum + " steps");
+        return elapsed;
+    }
+
+    private static final int[] LOADING_BENCHMARK_SESSIONS = {1000, 10000, 100000};
+    private static final int LOADING_BENCHMARK_RUNS = 3;
+
+    /**
+     * Compare loading the call session list through ActiveAndroid's {@code Select} with
+     * {@link CallSessionDao} for {@link #LOADING_BENCHMARK_SESSIONS} sessions each.
+     *
+     * Both need ActiveAndroid's own database, so the synthetic sessions are inserted inside a
+     * transaction that is rolled back at the end, leaving the actual user data untouched.
+     * Database writes from elsewhere are blocked while this is running. Results are written
+     * to the log.
+     *
+     * Accesses the database, so don't call this from the main thread.
+     */
+    public static void benchmarkSessionLoading() {
+        SQLiteDatabase db = ActiveAndroid.getDatabase();
+        Random random = new Random(INDEX_BENCHMARK_SEED);
+
+        for (int sessionCount : LOADING_BENCHMARK_SESSIONS) {
+            ActiveAndroid.beginTransaction();
+            try {
+                db.execSQL("DELETE FROM call_session");
+                createLoadingBenchmarkData(db, random, sessionCount);
+
+                long[] selectResult = measureSessionLoading(true);
+                long[] daoResult = measureSessionLoading(false);
+
+                DebugLog.i("TEST UTIL", String.format(Locale.US,
+                        "%d sessions, Select: %.2f ms, %d kB allocated; "
+                                + "DAO: %.2f ms, %d kB allocated",
+                        sessionCount,
+                        selectResult[0] / 1e6, selectResult[1] / 1024,
+                        daoResult[0] / 1e6, daoResult[1] / 1024));
+            } finally {
+                // never marked successful, so everything above is rolled back
+                ActiveAndroid.endTransaction();
+                Cache.clear();
+                SessionListeners.notifyChanged();
+            }
+        }
+    }
+
+    private static void createLoadingBenchmarkData(SQLiteDatabase db, Random random, int count) {
+        long timestamp = System.currentTimeMillis();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO call_session "
+                + "(timestamp, phone_number, incoming, duration, step_count) "
+                + "VALUES (?, ?, ?, ?, ?)");
+        try {
+            for (int i = 0; i < count; i++) {
+                insert.bindLong(1, timestamp - i * 3600 * 1000L);
+                insert.bindString(2, getRandomNumber());
+                insert.bindLong(3, random.nextInt(2));
+                insert.bindLong(4, random.nextInt(30 * 60 * 1000));
+                insert.bindLong(5, random.nextInt(2000));
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Load all call sessions, newest first, the way the session list does.
+     *
+     * @param select {@code true} to load via ActiveAndroid's {@code Select},
+     *               {@code false} to load via {@link CallSessionDao}
+     * @return Average load time in nanoseconds and allocated bytes per run
+     */
+    @SuppressWarnings("deprecation")
+    private static long[] measureSessionLoading(boolean select) {
+        long elapsed = 0;
+        long allocated = 0;
+        int loaded = 0;
+
+        for (int run = 0; run < LOADING_BENCHMARK_RUNS; run++) {
+            // start each run with an empty identity cache, same as after an app restart
+            Cache.clear();
+            System.gc();
+
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long start = System.nanoTime();
+
+            List<CallSession> sessions = select
+                    ? new Select().from(CallSession.class).orderBy("timestamp DESC")
+                            .<CallSession>execute()
+                    : CallSessionDao.getAll(false);
+
+            elapsed += System.nanoTime() - start;
+            Debug.stopAllocCounting();
+            allocated += Debug.getThreadAllocSize();
+            loaded += sessions.size();
+        }
+
+        DebugLog.d("TEST UTIL", "Loaded " + loaded + " sessions");
+        return new long[] {elapsed / LOADING_BENCHMARK_RUNS, allocated / LOADING_BENCHMARK_RUNS};
+    }
+
+    private static final String CONTENTION_BENCHMARK_DB = "contention_benchmark.db";
+    private static final int CONTENTION_BENCHMARK_SESSIONS = 10000;
+    private static final int CONTENTION_BENCHMARK_WRITES = 50000;
+
+    /**
+     * Measure read latency while a long write transaction is in progress on another thread,
+     * once with the default rollback journal, and once in write-ahead-log mode as used for
+     * the actual database.
+     *
+     * Runs on a separate database, so the actual user data is left alone. Results are written
+     * to the log.
+     *
+     * Accesses the database, so don't call this from the main thread.
+     *
+     * @param context Context
+     */
+    public static void benchmarkWriteContention(Context context) {
+        for (int wal = 0; wal < 2; wal++) {
+            context.deleteDatabase(CONTENTION_BENCHMARK_DB);
+            int flags = SQLiteDatabase.CREATE_IF_NECESSARY;
+            if (wal == 1) {
+                flags |= SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING;
+            }
+            final SQLiteDatabase db = SQLiteDatabase.openDatabase(
+                    context.getDatabasePath(CONTENTION_BENCHMARK_DB).getPath(), null, flags);
+
+            try {
+                db.execSQL("CREATE TABLE call_session (Id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + "timestamp INTEGER, phone_number TEXT, incoming INTEGER, "
+                        + "duration INTEGER, step_count INTEGER)");
+                db.beginTransaction();
+                try {
+                    createLoadingBenchmarkData(db, new Random(INDEX_BENCHMARK_SEED),
+                            CONTENTION_BENCHMARK_SESSIONS);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                measureWriteContention(db, (wal == 1) ? "WAL" : "rollback journal");
+            } catch (InterruptedException e) {
+                DebugLog.e("TEST UTIL", "Contention benchmark interrupted", e);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                db.close();
+                context.deleteDatabase(CONTENTION_BENCHMARK_DB);
+            }
+        }
+    }
+
+    private static void measureWriteContention(final SQLiteDatabase db, String mode)
+            throws InterruptedException {
+
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final long[] writeTime = new long[1];
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                db.beginTransaction();
+                try {
+                    writeStarted.countDown();
+                    createLoadingBenchmarkData(db, new Random(INDEX_BENCHMARK_SEED),
+                            CONTENTION_BENCHMARK_WRITES);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                writeTime[0] = System.nanoTime() - start;
+            }
+        });
+
+        writer.start();
+        writeStarted.await();
+
+        Random random = new Random(INDEX_BENCHMARK_SEED);
+        int reads = 0;
+        long totalReadTime = 0;
+        long maxReadTime = 0;
+
+        while (writer.isAlive()) {
+            String[] id = {String.valueOf(random.nextInt(CONTENTION_BENCHMARK_SESSIONS) + 1)};
+            long start = System.nanoTime();
+            Cursor cursor = db.rawQuery("SELECT * FROM call_session WHERE Id = ?", id);
+            cursor.moveToFirst();
+            cursor.close();
+            long readTime = System.nanoTime() - start;
+
+            reads++;
+            totalReadTime += readTime;
+            maxReadTime = Math.max(maxReadTime, readTime);
+        }
+        writer.join();
+
+        DebugLog.i("TEST UTIL", String.format(Locale.US,
+                "%s: write of %d sessions took %.2f ms, %d reads meanwhile, "
+                        + "%.3f ms average, %.2f ms max",
+                mode, CONTENTION_BENCHMARK_WRITES, writeTime[0] / 1e6, reads,
+                (reads > 0) ? totalReadTime / 1e6 / reads : 0, maxReadTime / 1e6));
+    }
 }
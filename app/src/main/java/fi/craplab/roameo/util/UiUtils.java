@@ -30,6 +30,7 @@ import android.widget.TextView;
 
 import fi.craplab.roameo.R;
 import fi.craplab.roameo.model.CallSession;
+import fi.craplab.roameo.model.StepHistogram;
 import fi.craplab.roameo.ui.SettingsActivity;
 
 /**
@@ -45,6 +46,16 @@ public class UiUtils {
         view.setText(context.getString(stringRes, number));
     }
 
+    /**
+     * Show median, 75th and 90th percentile of the given histogram.
+     */
+    public static void setPercentiles(Context context, TextView view, StepHistogram histogram) {
+        view.setText(context.getString(R.string.summary_percentiles,
+                histogram.getPercentile(50),
+                histogram.getPercentile(75),
+                histogram.getPercentile(90)));
+    }
+
     private static String phoneNumberString(Context context, CallSession session) {
         if (session.phoneNumber == null || session.phoneNumber.isEmpty()) {
             return context.getString(R.string.call_unknown_number);
@@ -24,6 +24,7 @@ package fi.craplab.roameo.util;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.v4.app.ActivityCompat;
 
 import org.joda.time.DateTime;
@@ -40,14 +41,16 @@ public class Utils {
 
     /**
      * Converts the {@link android.hardware.SensorEvent#timestamp} to an actual timestamp.
-     * {@link android.hardware.SensorEvent#timestamp} is based on {@link System#nanoTime()}, so
-     * the hardware timer offset and therefore corresponds to system uptime and not actual time.
+     * {@link android.hardware.SensorEvent#timestamp} is based on the same clock as
+     * {@link SystemClock#elapsedRealtimeNanos()}, so it corresponds to time since boot (including
+     * deep sleep) and not actual time.
      *
      * @param sensorTimestamp Sensor timestamp based on nanosecond hardware timer
-     * @return Sensor timestamp as UNIX timestamp
+     * @return Sensor timestamp as UNIX timestamp in milliseconds
      */
     public static long getSensorTimestamp(long sensorTimestamp) {
-        return (System.currentTimeMillis() + (sensorTimestamp - System.nanoTime())) / 1000000L;
+        return System.currentTimeMillis()
+                + (sensorTimestamp - SystemClock.elapsedRealtimeNanos()) / 1000000L;
     }
 
     public static String millisToTimeString(long millis) {
@@ -0,0 +1,97 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.data;
+
+import android.database.Cursor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link QueryRunner} that counts queries and serves the same fixed rows for each of them.
+ *
+ * The returned cursors are proxies implementing only what the statistics classes use,
+ * so no Android implementation is needed.
+ */
+class FakeQueryRunner extends QueryRunner {
+    final List<String[]> queryArgs = new ArrayList<>();
+    private Object[][] mRows = new Object[0][];
+
+    /**
+     * Set the rows returned by the following queries, one array of column values per row.
+     */
+    void setRows(Object[]... rows) {
+        mRows = rows;
+    }
+
+    int getQueryCount() {
+        return queryArgs.size();
+    }
+
+    @Override
+    Cursor rawQuery(String sql, String[] selectionArgs) {
+        queryArgs.add(selectionArgs);
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(),
+                new Class<?>[] {Cursor.class}, new RowHandler(mRows));
+    }
+
+    private static class RowHandler implements InvocationHandler {
+        private final Object[][] mRows;
+        private int mPosition = -1;
+
+        RowHandler(Object[][] rows) {
+            mRows = rows;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "moveToNext":
+                    return ++mPosition < mRows.length;
+                case "moveToFirst":
+                    mPosition = 0;
+                    return mRows.length > 0;
+                case "getCount":
+                    return mRows.length;
+                case "isNull":
+                    return getValue(args) == null;
+                case "getInt":
+                    return ((Number) getValue(args)).intValue();
+                case "getLong":
+                    return ((Number) getValue(args)).longValue();
+                case "getBlob":
+                    return getValue(args);
+                case "close":
+                    return null;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+
+        private Object getValue(Object[] args) {
+            return mRows[mPosition][(Integer) args[0]];
+        }
+    }
+}
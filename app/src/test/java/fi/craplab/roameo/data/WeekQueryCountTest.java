@@ -0,0 +1,124 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.data;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts the database queries it takes to display statistics weeks.
+ */
+public class WeekQueryCountTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final int WEEKS = 8;
+
+    private final LocalDate mOrigin = LocalDate.now().minusWeeks(WEEKS);
+    private QueryRunner mQueryRunner;
+    private FakeQueryRunner mFakeQueryRunner;
+
+    @Before
+    public void setUp() {
+        mQueryRunner = QueryRunner.get();
+        mFakeQueryRunner = new FakeQueryRunner();
+        QueryRunner.set(mFakeQueryRunner);
+    }
+
+    @After
+    public void tearDown() {
+        QueryRunner.set(mQueryRunner);
+    }
+
+    private long getTimestamp(int day, int hour) {
+        return mOrigin.plusDays(day).toDateTimeAtStartOfDay().plusHours(hour).getMillis();
+    }
+
+    /** One session at noon of each week's first day, with the week number as steps */
+    private Object[][] createWeeklySessions() {
+        Object[][] rows = new Object[WEEKS][];
+        for (int week = 0; week < WEEKS; week++) {
+            rows[week] = new Object[] {getTimestamp(week * 7, 12), 5 * MINUTE, (long) week};
+        }
+        return rows;
+    }
+
+    @Test
+    public void historyLoadsAllWeeksWithOneQuery() {
+        mFakeQueryRunner.setRows(createWeeklySessions());
+
+        WeekHistory history = WeekHistory.load(mOrigin);
+        assertEquals(1, mFakeQueryRunner.getQueryCount());
+
+        for (int week = 0; week < WEEKS; week++) {
+            DateTime weekStart = mOrigin.plusWeeks(week).toDateTimeAtStartOfDay();
+            WeekStatData data = history.getWeekStatData(weekStart);
+            assertEquals(1, data.getWeek().getSessionCount());
+            assertEquals(week, data.getWeek().getStepSum());
+            assertEquals(week, data.getDay(0).getStepSum());
+        }
+
+        // rendering every week, and rendering them again, doesn't query anything
+        history.getWeekStatData(mOrigin.toDateTimeAtStartOfDay());
+        assertEquals(1, mFakeQueryRunner.getQueryCount());
+    }
+
+    @Test
+    public void changedSessionReloadsOnlyItsDay() {
+        mFakeQueryRunner.setRows(createWeeklySessions());
+        WeekHistory history = WeekHistory.load(mOrigin);
+
+        // the session of the third week was changed to 100 steps
+        mFakeQueryRunner.setRows(new Object[] {getTimestamp(14, 12), 5 * MINUTE, 100L});
+        history.reloadDay(getTimestamp(14, 18));
+
+        assertEquals(2, mFakeQueryRunner.getQueryCount());
+        String[] args = mFakeQueryRunner.queryArgs.get(1);
+        assertEquals(getTimestamp(14, 0), Long.parseLong(args[0]));
+        assertEquals(getTimestamp(15, 0), Long.parseLong(args[1]));
+
+        WeekStatData data = history.getWeekStatData(mOrigin.plusWeeks(2).toDateTimeAtStartOfDay());
+        assertEquals(1, data.getWeek().getSessionCount());
+        assertEquals(100, data.getWeek().getStepSum());
+        assertEquals(2, mFakeQueryRunner.getQueryCount());
+    }
+
+    @Test
+    public void crunchedWeekIsQueriedOnce() {
+        mFakeQueryRunner.setRows(
+                new Object[] {1L, getTimestamp(0, 10), 2 * MINUTE, 30L, null, 10},
+                new Object[] {1L, getTimestamp(0, 10), 2 * MINUTE, 30L, null, 20},
+                new Object[] {2L, getTimestamp(3, 10), 30 * 1000L, 0L, null, null});
+
+        WeekStatsCruncher cruncher = new WeekStatsCruncher(mOrigin.toDateTimeAtStartOfDay());
+        WeekStatData data = cruncher.getWeekStatData();
+        cruncher.getWeekStatData();
+
+        assertEquals(1, mFakeQueryRunner.getQueryCount());
+        assertEquals(2, data.getWeek().getSessionCount());
+        assertEquals(30, data.getDay(0).getStepSum());
+        assertEquals(1, data.getDay(3).getSessionCount());
+    }
+}
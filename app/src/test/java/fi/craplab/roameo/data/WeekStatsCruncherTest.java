@@ -0,0 +1,90 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.data;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WeekStatsCruncherTest {
+    private static final long MINUTE = 60 * 1000;
+
+    private final DateTime mWeekStart = new DateTime(2017, 5, 1, 0, 0);
+    private QueryRunner mQueryRunner;
+    private FakeQueryRunner mFakeQueryRunner;
+
+    @Before
+    public void setUp() {
+        mQueryRunner = QueryRunner.get();
+        mFakeQueryRunner = new FakeQueryRunner();
+        QueryRunner.set(mFakeQueryRunner);
+    }
+
+    @After
+    public void tearDown() {
+        QueryRunner.set(mQueryRunner);
+    }
+
+    private long getTimestamp(int day, int hour) {
+        return mWeekStart.plusDays(day).plusHours(hour).getMillis();
+    }
+
+    @Test
+    public void minutesAreBucketedIncludingIdleMinutes() {
+        // Id, timestamp, duration, step_count, minute_data, minute_steps.steps
+        mFakeQueryRunner.setRows(
+                // 4 started minutes, two of them with steps
+                new Object[] {1L, getTimestamp(0, 10), 3 * MINUTE + 10, 47L, null, 5},
+                new Object[] {1L, getTimestamp(0, 10), 3 * MINUTE + 10, 47L, null, 42},
+                // a single minute with more steps than the last bucket starts at
+                new Object[] {2L, getTimestamp(2, 10), 30 * 1000L, 200L, null, 200},
+                // no minute rows at all
+                new Object[] {3L, getTimestamp(6, 23), 90 * 1000L, 0L, null, null});
+
+        WeekStatData data = new WeekStatsCruncher(mWeekStart).getWeekStatData();
+        int[] distribution = data.getMinuteDistribution();
+
+        // 5 steps, plus the idle minutes of sessions 1 and 3
+        assertEquals(1 + 2 + 2, distribution[0]);
+        assertEquals(1, distribution[4]);
+        assertEquals(1, distribution[WeekStatData.DISTRIBUTION_BUCKETS - 1]);
+        assertEquals(200, data.getMaxMinuteSteps());
+
+        assertEquals(3, data.getWeek().getSessionCount());
+        assertEquals(247, data.getWeek().getStepSum());
+        assertEquals(1, data.getDay(6).getSessionCount());
+    }
+
+    @Test
+    public void negativeMinuteStepsCountAsIdle() {
+        mFakeQueryRunner.setRows(
+                new Object[] {1L, getTimestamp(0, 10), 30 * 1000L, 0L, null, -15});
+
+        WeekStatData data = new WeekStatsCruncher(mWeekStart).getWeekStatData();
+
+        assertEquals(1, data.getMinuteDistribution()[0]);
+        assertEquals(0, data.getMaxMinuteSteps());
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MinuteStepsCodecTest {
+
+    @Test
+    public void roundTrip() {
+        int[] minutes = {0, 1, 2, 10, 200};
+        int[] steps = {5, 0, 127, 128, 100000};
+
+        int[][] decoded = MinuteStepsCodec.decodeArrays(MinuteStepsCodec.encode(minutes, steps));
+
+        assertArrayEquals(minutes, decoded[0]);
+        assertArrayEquals(steps, decoded[1]);
+    }
+
+    @Test
+    public void roundTripEmpty() {
+        int[][] decoded = MinuteStepsCodec.decodeArrays(
+                MinuteStepsCodec.encode(new int[0], new int[0]));
+
+        assertEquals(0, decoded[0].length);
+        assertEquals(0, decoded[1].length);
+    }
+
+    @Test
+    public void consecutiveSmallMinutesTakeTwoBytes() {
+        byte[] packed = MinuteStepsCodec.encode(new int[] {0, 1, 2}, new int[] {10, 20, 30});
+
+        // version and count, then minute delta and steps per entry
+        assertEquals(2 + 3 * 2, packed.length);
+    }
+
+    @Test
+    public void unorderedMinutesAreSorted() {
+        int[][] decoded = MinuteStepsCodec.decodeArrays(
+                MinuteStepsCodec.encode(new int[] {5, 1, 3}, new int[] {50, 10, 30}));
+
+        assertArrayEquals(new int[] {1, 3, 5}, decoded[0]);
+        assertArrayEquals(new int[] {10, 30, 50}, decoded[1]);
+    }
+
+    @Test
+    public void repeatedMinutesAreMerged() {
+        int[][] decoded = MinuteStepsCodec.decodeArrays(
+                MinuteStepsCodec.encode(new int[] {2, 0, 2, 2}, new int[] {1, 4, 2, 3}));
+
+        assertArrayEquals(new int[] {0, 2}, decoded[0]);
+        assertArrayEquals(new int[] {4, 6}, decoded[1]);
+    }
+
+    @Test
+    public void negativeStepsCountAsZero() {
+        int[][] decoded = MinuteStepsCodec.decodeArrays(
+                MinuteStepsCodec.encode(new int[] {0, 1, 1}, new int[] {-3, 5, -2}));
+
+        assertArrayEquals(new int[] {0, 1}, decoded[0]);
+        assertArrayEquals(new int[] {0, 5}, decoded[1]);
+    }
+
+    @Test
+    public void negativeMinutesAreDropped() {
+        int[][] decoded = MinuteStepsCodec.decodeArrays(
+                MinuteStepsCodec.encode(new int[] {-1, 0, 1}, new int[] {9, 1, 2}));
+
+        assertArrayEquals(new int[] {0, 1}, decoded[0]);
+        assertArrayEquals(new int[] {1, 2}, decoded[1]);
+    }
+
+    @Test
+    public void inputArraysAreLeftAlone() {
+        int[] minutes = {3, 1};
+        int[] steps = {-1, 2};
+        MinuteStepsCodec.encode(minutes, steps);
+
+        assertArrayEquals(new int[] {3, 1}, minutes);
+        assertArrayEquals(new int[] {-1, 2}, steps);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedLengthsAreRejected() {
+        MinuteStepsCodec.encode(new int[] {0, 1}, new int[] {1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownVersionIsRejected() {
+        MinuteStepsCodec.decodeArrays(new byte[] {2, 0});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyDataIsRejected() {
+        MinuteStepsCodec.decodeArrays(new byte[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedDataIsRejected() {
+        byte[] packed = MinuteStepsCodec.encode(new int[] {0, 1, 2}, new int[] {10, 200, 30});
+        MinuteStepsCodec.decodeArrays(Arrays.copyOf(packed, packed.length - 2));
+    }
+}
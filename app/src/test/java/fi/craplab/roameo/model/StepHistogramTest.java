@@ -0,0 +1,135 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class StepHistogramTest {
+
+    @Test
+    public void percentilesOfSingleHistogram() {
+        StepHistogram histogram = new StepHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.add(value);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getPercentile(0));
+        assertEquals(50, histogram.getMedian());
+        assertEquals(90, histogram.getPercentile(90));
+        assertEquals(100, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void emptyHistogramPercentileIsZero() {
+        assertEquals(0, new StepHistogram().getMedian());
+    }
+
+    @Test
+    public void mergeAddsUpCounts() {
+        StepHistogram first = new StepHistogram();
+        first.add(10, 3);
+        StepHistogram second = new StepHistogram();
+        second.add(10);
+        second.add(40, 4);
+
+        first.merge(second);
+
+        assertEquals(8, first.getCount());
+        // 4 values of 10, then 4 values of 40
+        assertEquals(10, first.getPercentile(50));
+        assertEquals(40, first.getPercentile(51));
+        // the merged histogram itself is left as it is
+        assertEquals(5, second.getCount());
+    }
+
+    @Test
+    public void mergeMatchesAddingEverythingToOne() {
+        StepHistogram merged = new StepHistogram();
+        StepHistogram single = new StepHistogram();
+        for (int day = 0; day < 7; day++) {
+            StepHistogram dayHistogram = new StepHistogram();
+            for (int minute = 0; minute < 30; minute++) {
+                int steps = (day * 31 + minute * 17) % 140;
+                dayHistogram.add(steps);
+                single.add(steps);
+            }
+            merged.merge(dayHistogram);
+        }
+
+        assertEquals(single.getCount(), merged.getCount());
+        for (int percentile = 0; percentile <= 100; percentile += 5) {
+            assertEquals(single.getPercentile(percentile), merged.getPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void valuesAboveMaximumShareLastBucket() {
+        StepHistogram histogram = new StepHistogram();
+        histogram.add(StepHistogram.MAX_VALUE + 100);
+
+        assertEquals(StepHistogram.MAX_VALUE, histogram.getMedian());
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        StepHistogram histogram = new StepHistogram();
+        histogram.add(-5, 2);
+        histogram.add(20);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(0, histogram.getMedian());
+        assertEquals(20, histogram.getPercentile(100));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeCountIsRejected() {
+        new StepHistogram().add(10, -1);
+    }
+
+    @Test
+    public void encodeDecodeRoundTrip() {
+        StepHistogram histogram = new StepHistogram();
+        histogram.add(0, 12);
+        histogram.add(37, 3);
+        histogram.add(StepHistogram.MAX_VALUE, 1);
+
+        StepHistogram decoded = StepHistogram.decode(histogram.encode());
+
+        assertEquals(histogram.getCount(), decoded.getCount());
+        for (int percentile = 0; percentile <= 100; percentile += 10) {
+            assertEquals(histogram.getPercentile(percentile), decoded.getPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void decodeNullIsEmpty() {
+        assertEquals(0, StepHistogram.decode(null).getCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeRejectsUnknownVersion() {
+        StepHistogram.decode(new byte[] {9, 0});
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.sensor;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Replay benchmark for the call session ingestion core, i.e. {@link CallStateMachine} and
+ * {@link MinuteStepBuckets}, running on a plain JVM.
+ *
+ * A synthetic trace of call state changes and step counter events is generated up front, using
+ * a fixed seed so every run replays the same trace, and then pushed through the state machine
+ * and the minute buckets as fast as possible. Outgoing, incoming, missed and waiting calls are
+ * all part of the trace.
+ *
+ * Run the {@link #main(String[])} method, optionally with the number of calls as argument.
+ */
+public class CallStateBenchmark {
+    private static final long SEED = 0x526f616d656fL;
+    private static final int DEFAULT_CALLS = 200000;
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    private static final int EVENT_STEPS = -1;
+
+    /** Either a call state, or {@link #EVENT_STEPS} for a step counter event */
+    private int[] mTypes;
+    /** Step delta for step counter events */
+    private int[] mValues;
+    /** Event time in milliseconds */
+    private long[] mTimes;
+    private int mSize = 0;
+
+    private int mTransitions = 0;
+
+    private final MinuteStepBuckets mBuckets = new MinuteStepBuckets();
+    private long mSessionStart;
+    private long mSessions;
+    private long mWaitingCalls;
+    private long mTotalSteps;
+
+    private final CallStateMachine mStateMachine = new CallStateMachine(
+            new CallStateMachine.Callback() {
+                @Override
+                public void onSessionStart(boolean incoming, String phoneNumber) {
+                    mBuckets.clear();
+                    mSessions++;
+                }
+
+                @Override
+                public void onCallWaiting(String phoneNumber) {
+                    mWaitingCalls++;
+                }
+
+                @Override
+                public void onSessionEnd() {
+                    for (int minute = 0; minute < mBuckets.getMinuteCount(); minute++) {
+                        mTotalSteps += mBuckets.getSteps(minute);
+                    }
+                }
+            });
+
+    public static void main(String[] args) {
+        int calls = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_CALLS;
+
+        CallStateBenchmark benchmark = new CallStateBenchmark();
+        benchmark.generate(calls);
+        System.out.println(String.format(Locale.US,
+                "Trace: %d calls, %d events, %d call state transitions",
+                calls, benchmark.mSize, benchmark.mTransitions));
+
+        for (int run = 0; run < WARMUP_RUNS; run++) {
+            benchmark.replay();
+        }
+
+        double best = 0;
+        for (int run = 0; run < MEASURED_RUNS; run++) {
+            long start = System.nanoTime();
+            benchmark.replay();
+            long elapsed = System.nanoTime() - start;
+
+            double eventsPerSec = benchmark.mSize * 1e9 / elapsed;
+            best = Math.max(best, eventsPerSec);
+            System.out.println(String.format(Locale.US,
+                    "Run %d: %.1f ms, %.0f events/sec (%d sessions, %d waiting calls, %d steps)",
+                    run + 1, elapsed / 1e6, eventsPerSec,
+                    benchmark.mSessions, benchmark.mWaitingCalls, benchmark.mTotalSteps));
+        }
+
+        System.out.println(String.format(Locale.US, "Best: %.0f events/sec", best));
+    }
+
+    /**
+     * Generate the synthetic trace.
+     *
+     * @param calls Number of calls to generate
+     */
+    private void generate(int calls) {
+        Random random = new Random(SEED);
+        int capacity = calls * 64;
+        mTypes = new int[capacity];
+        mValues = new int[capacity];
+        mTimes = new long[capacity];
+
+        long time = 0;
+        for (int call = 0; call < calls; call++) {
+            time += 60000 + random.nextInt(3600000);
+            int kind = random.nextInt(10);
+
+            if (kind < 4) {
+                // incoming call, some of them missed
+                addState(time, CallStateMachine.CALL_STATE_RINGING);
+                time += 1000 + random.nextInt(15000);
+                if (kind == 0) {
+                    addState(time, CallStateMachine.CALL_STATE_IDLE);
+                    continue;
+                }
+            }
+
+            addState(time, CallStateMachine.CALL_STATE_OFFHOOK);
+
+            // on average 30 step events, each spread across a few seconds
+            int events = random.nextInt(60);
+            int waitingAt = (kind == 9) ? random.nextInt(events + 1) : -1;
+            for (int event = 0; event < events; event++) {
+                if (event == waitingAt) {
+                    addState(time, CallStateMachine.CALL_STATE_RINGING);
+                    time += 1000 + random.nextInt(10000);
+                    addState(time, CallStateMachine.CALL_STATE_OFFHOOK);
+                }
+                time += 500 + random.nextInt(10000);
+                addSteps(time, 1 + random.nextInt(20));
+            }
+
+            time += random.nextInt(5000);
+            addState(time, CallStateMachine.CALL_STATE_IDLE);
+        }
+    }
+
+    private void addState(long time, int state) {
+        mTypes[mSize] = state;
+        mTimes[mSize] = time;
+        mSize++;
+        mTransitions++;
+    }
+
+    private void addSteps(long time, int steps) {
+        mTypes[mSize] = EVENT_STEPS;
+        mValues[mSize] = steps;
+        mTimes[mSize] = time;
+        mSize++;
+    }
+
+    /**
+     * Push the whole trace through the state machine and the minute buckets.
+     */
+    private void replay() {
+        mSessions = 0;
+        mWaitingCalls = 0;
+        mTotalSteps = 0;
+
+        for (int i = 0; i < mSize; i++) {
+            int type = mTypes[i];
+            if (type == EVENT_STEPS) {
+                if (mStateMachine.isSessionActive()) {
+                    mBuckets.add(mTimes[i] - mSessionStart, mValues[i]);
+                }
+            } else {
+                boolean wasActive = mStateMachine.isSessionActive();
+                mStateMachine.onCallStateChanged(type, null);
+                if (!wasActive && mStateMachine.isSessionActive()) {
+                    mSessionStart = mTimes[i];
+                }
+            }
+        }
+    }
+}
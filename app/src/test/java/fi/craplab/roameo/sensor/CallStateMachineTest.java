@@ -0,0 +1,159 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static fi.craplab.roameo.sensor.CallStateMachine.CALL_STATE_IDLE;
+import static fi.craplab.roameo.sensor.CallStateMachine.CALL_STATE_OFFHOOK;
+import static fi.craplab.roameo.sensor.CallStateMachine.CALL_STATE_RINGING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CallStateMachineTest {
+    private static final String NUMBER = "+358401234567";
+    private static final String OTHER_NUMBER = "+358409876543";
+
+    private final List<String> mEvents = new ArrayList<>();
+    private CallStateMachine mStateMachine;
+
+    @Before
+    public void setUp() {
+        mStateMachine = new CallStateMachine(new CallStateMachine.Callback() {
+            @Override
+            public void onSessionStart(boolean incoming, String phoneNumber) {
+                mEvents.add((incoming ? "start in " : "start out ") + phoneNumber);
+            }
+
+            @Override
+            public void onCallWaiting(String phoneNumber) {
+                mEvents.add("waiting " + phoneNumber);
+            }
+
+            @Override
+            public void onSessionEnd() {
+                mEvents.add("end");
+            }
+        });
+        mStateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+    }
+
+    @Test
+    public void incomingCall() {
+        mStateMachine.onCallStateChanged(CALL_STATE_RINGING, NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, "");
+        assertTrue(mStateMachine.isSessionActive());
+        mStateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+
+        assertEvents("start in " + NUMBER, "end");
+        assertFalse(mStateMachine.isSessionActive());
+        assertEquals(1, mStateMachine.getCallCount());
+    }
+
+    @Test
+    public void outgoingCall() {
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+
+        assertEvents("start out " + NUMBER, "end");
+    }
+
+    @Test
+    public void missedCallHasNoSession() {
+        mStateMachine.onCallStateChanged(CALL_STATE_RINGING, NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+
+        assertEvents();
+    }
+
+    @Test
+    public void waitingCallStaysOneSession() {
+        mStateMachine.onCallStateChanged(CALL_STATE_RINGING, NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, "");
+        // second call rings, reported again while ringing, then answered (first one on hold)
+        mStateMachine.onCallStateChanged(CALL_STATE_RINGING, OTHER_NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_RINGING, OTHER_NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, "");
+        // back and forth between the held calls doesn't change the reported state
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, "");
+        mStateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+
+        assertEvents("start in " + NUMBER, "waiting " + OTHER_NUMBER, "end");
+        assertEquals(2, mStateMachine.getCallCount());
+    }
+
+    @Test
+    public void rejectedWaitingCallStaysOneSession() {
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_RINGING, OTHER_NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, "");
+        assertTrue(mStateMachine.isSessionActive());
+        mStateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+
+        assertEvents("start out " + NUMBER, "waiting " + OTHER_NUMBER, "end");
+    }
+
+    @Test
+    public void restartDuringCallCountsAsOutgoing() {
+        CallStateMachine stateMachine = new CallStateMachine(new CallStateMachine.Callback() {
+            @Override
+            public void onSessionStart(boolean incoming, String phoneNumber) {
+                mEvents.add(incoming ? "start in" : "start out");
+            }
+
+            @Override
+            public void onCallWaiting(String phoneNumber) {
+            }
+
+            @Override
+            public void onSessionEnd() {
+                mEvents.add("end");
+            }
+        });
+        stateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, "");
+        stateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+
+        assertEvents("start out", "end");
+    }
+
+    @Test
+    public void consecutiveCallsAreSeparateSessions() {
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+        mStateMachine.onCallStateChanged(CALL_STATE_RINGING, OTHER_NUMBER);
+        mStateMachine.onCallStateChanged(CALL_STATE_OFFHOOK, "");
+        mStateMachine.onCallStateChanged(CALL_STATE_IDLE, "");
+
+        assertEvents("start out " + NUMBER, "end", "start in " + OTHER_NUMBER, "end");
+        assertEquals(1, mStateMachine.getCallCount());
+    }
+
+    private void assertEvents(String... events) {
+        assertEquals(Arrays.asList(events), mEvents);
+    }
+}
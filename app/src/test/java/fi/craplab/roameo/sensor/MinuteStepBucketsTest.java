@@ -0,0 +1,83 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MinuteStepBucketsTest {
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void stepsAddUpPerMinute() {
+        MinuteStepBuckets buckets = new MinuteStepBuckets();
+        buckets.add(0, 3);
+        buckets.add(MINUTE - 1, 4);
+        buckets.add(2 * MINUTE, 5);
+
+        assertEquals(3, buckets.getMinuteCount());
+        assertEquals(7, buckets.getSteps(0));
+        assertEquals(0, buckets.getSteps(1));
+        assertEquals(5, buckets.getSteps(2));
+        assertEquals(0, buckets.getSteps(3));
+        assertEquals(2, buckets.getStepMinuteCount());
+    }
+
+    @Test
+    public void growsBeyondCapacity() {
+        MinuteStepBuckets buckets = new MinuteStepBuckets(2);
+        buckets.add(0, 1);
+        buckets.add(10 * MINUTE, 2);
+
+        assertEquals(11, buckets.getMinuteCount());
+        assertEquals(1, buckets.getSteps(0));
+        assertEquals(2, buckets.getSteps(10));
+    }
+
+    @Test
+    public void copiesOnlyMinutesWithSteps() {
+        MinuteStepBuckets buckets = new MinuteStepBuckets();
+        buckets.add(MINUTE, 8);
+        buckets.add(4 * MINUTE, 2);
+
+        int[] minutes = new int[buckets.getStepMinuteCount()];
+        int[] steps = new int[minutes.length];
+        buckets.copyStepMinutes(minutes, steps);
+
+        assertArrayEquals(new int[] {1, 4}, minutes);
+        assertArrayEquals(new int[] {8, 2}, steps);
+    }
+
+    @Test
+    public void clearKeepsNothing() {
+        MinuteStepBuckets buckets = new MinuteStepBuckets();
+        buckets.add(3 * MINUTE, 8);
+        buckets.clear();
+        buckets.add(0, 1);
+
+        assertEquals(1, buckets.getMinuteCount());
+        assertEquals(0, buckets.getSteps(3));
+        assertEquals(1, buckets.getStepMinuteCount());
+    }
+}
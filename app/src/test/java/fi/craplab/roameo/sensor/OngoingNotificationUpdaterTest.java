@@ -0,0 +1,219 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds bursts of step updates through {@link OngoingNotificationUpdater}, running on a fake
+ * clock, and counts how often the large icon is decoded and the notification is set up and
+ * posted.
+ */
+public class OngoingNotificationUpdaterTest {
+    private static final long INTERVAL_MS = 1000;
+
+    private final FakeDisplay mDisplay = new FakeDisplay();
+    private final FakeScheduler mScheduler = new FakeScheduler();
+    private OngoingNotificationUpdater<Object> mUpdater;
+
+    @Before
+    public void setUp() {
+        mUpdater = new OngoingNotificationUpdater<>(mDisplay, mScheduler);
+    }
+
+    @Test
+    public void burstIsCoalesced() {
+        mUpdater.start(0, INTERVAL_MS);
+        for (int steps = 1; steps <= 100; steps++) {
+            mUpdater.update(steps);
+        }
+        mScheduler.advance(INTERVAL_MS);
+
+        // first step right away, everything else of the burst with the delayed update
+        assertEquals(1, mDisplay.prepareCount);
+        assertEquals(2, mDisplay.shown.size());
+        assertEquals(1, (int) mDisplay.shown.get(0));
+        assertEquals(100, (int) mDisplay.shown.get(1));
+    }
+
+    @Test
+    public void atMostOneNotifyPerInterval() {
+        mUpdater.start(0, INTERVAL_MS);
+        int steps = 0;
+        // a batch of 20 steps every 100 ms for a minute
+        for (int time = 0; time < 60000; time += 100) {
+            for (int i = 0; i < 20; i++) {
+                mUpdater.update(++steps);
+            }
+            mScheduler.advance(100);
+        }
+        mScheduler.advance(INTERVAL_MS);
+
+        assertEquals("notification builder set up once", 1, mDisplay.prepareCount);
+        for (int i = 1; i < mDisplay.shownTimes.size(); i++) {
+            long gap = mDisplay.shownTimes.get(i) - mDisplay.shownTimes.get(i - 1);
+            assertTrue("notifications " + gap + " ms apart", gap >= INTERVAL_MS);
+        }
+        assertTrue(mDisplay.shown.size() <= 60000 / INTERVAL_MS + 1);
+        assertEquals(steps, (int) mDisplay.shown.get(mDisplay.shown.size() - 1));
+    }
+
+    @Test
+    public void unchangedStepsAreNotPosted() {
+        mUpdater.start(0, INTERVAL_MS);
+        mUpdater.update(5);
+        mScheduler.advance(INTERVAL_MS);
+        mUpdater.update(5);
+        mScheduler.advance(INTERVAL_MS);
+
+        assertEquals(1, mDisplay.shown.size());
+    }
+
+    @Test
+    public void stopDropsScheduledUpdate() {
+        mUpdater.start(0, INTERVAL_MS);
+        mUpdater.update(1);
+        mUpdater.update(2);
+        mUpdater.stop();
+        mScheduler.advance(INTERVAL_MS);
+        mUpdater.update(3);
+
+        assertEquals(1, mDisplay.shown.size());
+        assertEquals(0, mScheduler.pending.size());
+    }
+
+    @Test
+    public void largeIconDecodedOnce() {
+        // three calls, each with a minute of a step every 300 ms, and a final notification
+        for (int session = 0; session < 3; session++) {
+            mUpdater.start(mScheduler.now(), INTERVAL_MS);
+            for (int time = 0, steps = 1; time < 60000; time += 300, steps++) {
+                mUpdater.update(steps);
+                mScheduler.advance(300);
+            }
+            mUpdater.stop();
+            assertSame(mDisplay.largeIcon, mUpdater.getLargeIcon());
+        }
+
+        assertEquals(1, mDisplay.decodeCount);
+        assertEquals(3, mDisplay.prepareCount);
+        assertTrue(mDisplay.shown.size() <= 3 * (60000 / INTERVAL_MS + 1));
+    }
+
+    @Test
+    public void intervalIsSetPerSession() {
+        mUpdater.start(0, 5 * INTERVAL_MS);
+        for (int steps = 1; steps <= 100; steps++) {
+            mUpdater.update(steps);
+            mScheduler.advance(100);
+        }
+        mScheduler.advance(5 * INTERVAL_MS);
+
+        // first step right away, then one update every 5 s
+        assertEquals(3, mDisplay.shown.size());
+        assertEquals(100, (int) mDisplay.shown.get(2));
+    }
+
+    private class FakeDisplay implements OngoingNotificationUpdater.Display<Object> {
+        int decodeCount = 0;
+        int prepareCount = 0;
+        final Object largeIcon = new Object();
+        final List<Integer> shown = new ArrayList<>();
+        final List<Long> shownTimes = new ArrayList<>();
+
+        @Override
+        public Object decodeLargeIcon() {
+            decodeCount++;
+            return largeIcon;
+        }
+
+        @Override
+        public void prepare(long startTime, Object icon) {
+            assertSame(largeIcon, icon);
+            prepareCount++;
+        }
+
+        @Override
+        public void show(int steps) {
+            shown.add(steps);
+            shownTimes.add(mScheduler.now());
+        }
+    }
+
+    private static class FakeScheduler implements OngoingNotificationUpdater.Scheduler {
+        // like SystemClock.elapsedRealtime(), nowhere near zero
+        long time = 100000;
+        final List<Runnable> pending = new ArrayList<>();
+        final List<Long> pendingTimes = new ArrayList<>();
+
+        @Override
+        public long now() {
+            return time;
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMs) {
+            pending.add(runnable);
+            pendingTimes.add(time + delayMs);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            for (int i = pending.size() - 1; i >= 0; i--) {
+                if (pending.get(i) == runnable) {
+                    pending.remove(i);
+                    pendingTimes.remove(i);
+                }
+            }
+        }
+
+        /**
+         * Move the clock forward, running everything that's due on the way.
+         */
+        void advance(long millis) {
+            long end = time + millis;
+            while (true) {
+                int next = -1;
+                for (int i = 0; i < pending.size(); i++) {
+                    if (pendingTimes.get(i) <= end
+                            && (next == -1 || pendingTimes.get(i) < pendingTimes.get(next))) {
+                        next = i;
+                    }
+                }
+                if (next == -1) {
+                    break;
+                }
+                time = pendingTimes.remove(next);
+                pending.remove(next).run();
+            }
+            time = end;
+        }
+    }
+}
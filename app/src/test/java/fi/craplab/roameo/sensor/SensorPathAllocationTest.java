@@ -0,0 +1,242 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Makes sure handling a step counter event during a call doesn't allocate anything, as long as
+ * the call fits into the preallocated minutes and journal.
+ *
+ * Drives the same {@link StepCounterHandler} that {@link SensorService} uses, with a real
+ * {@link StepCountTracker}, {@link SessionJournal} and {@link SensorTraceRecorder} writing to
+ * a temporary directory, and an {@link OngoingNotificationUpdater} on a fake clock.
+ */
+public class SensorPathAllocationTest {
+    private static final int EVENTS = 8000;
+    /**
+     * One step every 500 ms, so about 67 minutes. That stays within the two hours of
+     * preallocated minutes, and the 8000 journal records fit its initial 64 kB.
+     */
+    private static final long EVENT_INTERVAL_MS = 500;
+    private static final long NOTIFICATION_INTERVAL_MS = 1000;
+    private static final int WARMUP_RUNS = 5;
+
+    /** Trace header and record sizes, see {@link SensorTraceRecorder} */
+    private static final int TRACE_HEADER_SIZE = 24;
+    private static final int TRACE_RECORD_SIZE = 13;
+    /** Journal header and record sizes, see {@link SessionJournal} */
+    private static final int JOURNAL_HEADER_SIZE = 72;
+    private static final int JOURNAL_RECORD_SIZE = 8;
+
+    private final MinuteStepBuckets mBuckets = new MinuteStepBuckets();
+    private final StepCountTracker mTracker = new StepCountTracker(mBuckets);
+    private final CountingDisplay mDisplay = new CountingDisplay();
+    private final FakeScheduler mScheduler = new FakeScheduler();
+    private final OngoingNotificationUpdater<Object> mUpdater =
+            new OngoingNotificationUpdater<>(mDisplay, mScheduler);
+
+    private File mDirectory;
+    private File mTraceFile;
+    private SessionJournal mJournal;
+    private SensorTraceRecorder mTraceRecorder;
+    private StepCounterHandler mHandler;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("roameo").toFile();
+        mTraceFile = new File(mDirectory, "trace.bin");
+
+        mJournal = new SessionJournal(mDirectory);
+        mTraceRecorder = new SensorTraceRecorder(mTraceFile, 0, 0);
+
+        mHandler = new StepCounterHandler(mTracker, mJournal, mUpdater);
+        mHandler.setTraceRecorder(mTraceRecorder);
+        mHandler.setRealTimeNotification(true);
+    }
+
+    @After
+    public void tearDown() {
+        mTraceRecorder.close();
+        mJournal.discard();
+        for (File file : mDirectory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(mDirectory.delete());
+    }
+
+    @Test
+    public void counterEventsDontAllocate() throws IOException {
+        assumeTrue("JVM can't count allocated bytes", getAllocatedBytes() != -1);
+
+        for (int run = 0; run < WARMUP_RUNS; run++) {
+            startSession();
+            feedEvents();
+        }
+        startSession();
+
+        // allocations of the measurement itself
+        long overhead = getAllocatedBytes();
+        overhead = getAllocatedBytes() - overhead;
+
+        long allocated = getAllocatedBytes();
+        feedEvents();
+        allocated = getAllocatedBytes() - allocated - overhead;
+
+        assertEquals("bytes allocated for " + EVENTS + " events", 0, allocated);
+
+        // everything went all the way through
+        assertEquals(EVENTS, mTracker.getStepCount());
+        assertEquals(1, readJournalSteps(EVENTS - 1));
+        assertEquals(0, readJournalSteps(EVENTS));
+
+        mScheduler.advanceTo(mScheduler.now() + NOTIFICATION_INTERVAL_MS);
+        assertEquals(EVENTS, mDisplay.lastSteps);
+        assertTrue(mDisplay.showCount > 0);
+
+        mTraceRecorder.close();
+        assertEquals(TRACE_HEADER_SIZE + (WARMUP_RUNS + 1) * EVENTS * TRACE_RECORD_SIZE,
+                mTraceFile.length());
+    }
+
+    private void startSession() {
+        mScheduler.reset();
+        mTracker.reset(1000);
+        mJournal.begin(0, 0);
+        mUpdater.start(0, NOTIFICATION_INTERVAL_MS);
+    }
+
+    /**
+     * Feed the events the way {@link SensorService#onSensorChanged} does during a call.
+     */
+    private void feedEvents() {
+        for (int i = 1; i <= EVENTS; i++) {
+            long timestamp = i * EVENT_INTERVAL_MS;
+            mScheduler.advanceTo(timestamp);
+            mHandler.onStepCounter(timestamp * 1000000L, 1000 + i, timestamp);
+        }
+    }
+
+    /**
+     * Read the number of steps of a journal record straight from the journal file.
+     *
+     * @param record Record index
+     * @return Journaled steps, 0 if there is no record
+     */
+    private int readJournalSteps(int record) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(mDirectory, "session.journal"), "r");
+        try {
+            file.seek(JOURNAL_HEADER_SIZE + record * JOURNAL_RECORD_SIZE + 4);
+            return file.readInt();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread so far, if supported by the JVM.
+     *
+     * @return Allocated bytes, or -1 if unknown
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static class CountingDisplay implements OngoingNotificationUpdater.Display<Object> {
+        int showCount = 0;
+        int lastSteps = 0;
+
+        @Override
+        public Object decodeLargeIcon() {
+            return new Object();
+        }
+
+        @Override
+        public void prepare(long startTime, Object largeIcon) {
+        }
+
+        @Override
+        public void show(int steps) {
+            showCount++;
+            lastSteps = steps;
+        }
+    }
+
+    /**
+     * Fake clock with room for the single delayed update the updater ever schedules.
+     */
+    private static class FakeScheduler implements OngoingNotificationUpdater.Scheduler {
+        private long mNow = 0;
+        private Runnable mPending;
+        private long mPendingTime;
+
+        @Override
+        public long now() {
+            return mNow;
+        }
+
+        @Override
+        public void postDelayed(Runnable runnable, long delayMs) {
+            mPending = runnable;
+            mPendingTime = mNow + delayMs;
+        }
+
+        @Override
+        public void removeCallbacks(Runnable runnable) {
+            if (mPending == runnable) {
+                mPending = null;
+            }
+        }
+
+        void advanceTo(long time) {
+            mNow = time;
+            if (mPending != null && mPendingTime <= mNow) {
+                Runnable runnable = mPending;
+                mPending = null;
+                runnable.run();
+            }
+        }
+
+        void reset() {
+            mNow = 0;
+            mPending = null;
+        }
+    }
+}
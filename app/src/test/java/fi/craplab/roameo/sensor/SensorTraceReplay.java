@@ -0,0 +1,290 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+
+package fi.craplab.roameo.sensor;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Deterministic replay of a trace recorded by {@link SensorTraceRecorder}, running on a plain
+ * JVM.
+ *
+ * The whole trace is read into memory first, and then pushed through the same counting and
+ * bucketing logic {@link SensorService} uses, i.e. {@link CallStateMachine},
+ * {@link StepCountTracker} and {@link MinuteStepBuckets}, as fast as possible. Reports the
+ * replay throughput, the memory allocated during a replay, and the resulting steps per minute
+ * of each call session, which can be compared between runs to catch regressions.
+ *
+ * Step counter events received between calls are used as baseline for the next session's
+ * counter offset, same as the service keeps track of the counter value between calls.
+ * Step counter events received after a call ended are still added to the session as long as
+ * they were counted before its end, same as the batched events flushed from the sensor's FIFO
+ * are handled in the service.
+ *
+ * Usage: {@code SensorTraceReplay <trace file> [runs]}
+ */
+public class SensorTraceReplay {
+    private static final int DEFAULT_RUNS = 10;
+    private static final int WARMUP_RUNS = 3;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private byte[] mTypes;
+    private long[] mTimes;
+    private int[] mValues;
+    private int mSize = 0;
+
+    private final MinuteStepBuckets mBuckets = new MinuteStepBuckets();
+    private final StepCountTracker mTracker = new StepCountTracker(mBuckets);
+    private final CallStateMachine mStateMachine;
+
+    private boolean mCounting = false;
+    private boolean mFinishing = false;
+    private long mSessionStart;
+    private long mSessionEnd;
+    private int mBaselineValue;
+
+    private boolean mReport = false;
+    private int mSessions;
+    private long mTotalSteps;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SensorTraceReplay <trace file> [runs]");
+            System.exit(1);
+        }
+        int runs = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_RUNS;
+
+        SensorTraceReplay replay = new SensorTraceReplay();
+        replay.read(args[0]);
+        System.out.println(String.format(Locale.US, "Trace %s: %d events", args[0], replay.mSize));
+
+        // first run prints the resulting sessions and doubles as warmup
+        replay.mReport = true;
+        replay.replay();
+        replay.mReport = false;
+        System.out.println(String.format(Locale.US, "%d sessions, %d steps",
+                replay.mSessions, replay.mTotalSteps));
+
+        for (int run = 1; run < WARMUP_RUNS; run++) {
+            replay.replay();
+        }
+
+        // allocations of the measurement itself
+        long overhead = getAllocatedBytes();
+        overhead = getAllocatedBytes() - overhead;
+
+        double best = 0;
+        for (int run = 0; run < runs; run++) {
+            long allocated = getAllocatedBytes();
+            long start = System.nanoTime();
+            replay.replay();
+            long elapsed = System.nanoTime() - start;
+            allocated = getAllocatedBytes() - allocated - overhead;
+
+            double eventsPerSec = replay.mSize * 1e9 / elapsed;
+            best = Math.max(best, eventsPerSec);
+            System.out.println(String.format(Locale.US,
+                    "Run %d: %.3f ms, %.0f events/sec, %s bytes allocated",
+                    run + 1, elapsed / 1e6, eventsPerSec,
+                    (allocated < 0) ? "unknown" : String.valueOf(allocated)));
+        }
+
+        System.out.println(String.format(Locale.US, "Best: %.0f events/sec", best));
+    }
+
+    SensorTraceReplay() {
+        mStateMachine = new CallStateMachine(new CallStateMachine.Callback() {
+            @Override
+            public void onSessionStart(boolean incoming, String phoneNumber) {
+                if (mFinishing) {
+                    finishSession();
+                }
+                mTracker.reset(mBaselineValue);
+                mCounting = true;
+            }
+
+            @Override
+            public void onCallWaiting(String phoneNumber) {
+                // nothing to do, the session simply continues
+            }
+
+            @Override
+            public void onSessionEnd() {
+                mFinishing = true;
+            }
+        });
+    }
+
+    /**
+     * Read the whole trace into memory.
+     *
+     * @param path Trace file path
+     * @throws IOException if the file can't be read or isn't a trace
+     */
+    void read(String path) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(path)));
+        try {
+            if (input.readInt() != SensorTraceRecorder.MAGIC) {
+                throw new IOException("Not a sensor trace: " + path);
+            }
+            int version = input.readInt();
+            if (version != SensorTraceRecorder.VERSION) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+            // wall clock and elapsed realtime pair, not needed for relative times
+            input.readLong();
+            input.readLong();
+
+            mTypes = new byte[1024];
+            mTimes = new long[1024];
+            mValues = new int[1024];
+
+            while (true) {
+                byte type;
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                if (mSize == mTypes.length) {
+                    mTypes = Arrays.copyOf(mTypes, mSize * 2);
+                    mTimes = Arrays.copyOf(mTimes, mSize * 2);
+                    mValues = Arrays.copyOf(mValues, mSize * 2);
+                }
+
+                mTypes[mSize] = type;
+                mTimes[mSize] = input.readLong();
+                mValues[mSize] = input.readInt();
+                mSize++;
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Push the whole trace through the counting and bucketing logic.
+     */
+    void replay() {
+        mSessions = 0;
+        mTotalSteps = 0;
+        mCounting = false;
+        mFinishing = false;
+        mBaselineValue = -1;
+
+        for (int i = 0; i < mSize; i++) {
+            long time = mTimes[i];
+
+            if (mTypes[i] == SensorTraceRecorder.TYPE_CALL_STATE) {
+                boolean wasActive = mStateMachine.isSessionActive();
+                mStateMachine.onCallStateChanged(mValues[i], null);
+
+                if (!wasActive && mStateMachine.isSessionActive()) {
+                    mSessionStart = time;
+                } else if (wasActive && !mStateMachine.isSessionActive()) {
+                    mSessionEnd = time;
+                } else if (mFinishing) {
+                    // any other call state change after the end means the FIFO was flushed
+                    finishSession();
+                }
+
+            } else if (mTypes[i] == SensorTraceRecorder.TYPE_STEP_COUNTER) {
+                if (mFinishing && time > mSessionEnd) {
+                    finishSession();
+                }
+
+                if (mCounting) {
+                    long timestamp = (time - mSessionStart) / NANOS_PER_MILLI;
+                    mTracker.onCounterValue(mValues[i], timestamp);
+                } else {
+                    mBaselineValue = mValues[i];
+                }
+            }
+        }
+
+        if (mCounting) {
+            finishSession();
+        }
+    }
+
+    /**
+     * Get the number of call sessions of the last replay.
+     *
+     * @return Session count
+     */
+    int getSessionCount() {
+        return mSessions;
+    }
+
+    /**
+     * Get the number of steps of all call sessions of the last replay.
+     *
+     * @return Total step count
+     */
+    long getTotalSteps() {
+        return mTotalSteps;
+    }
+
+    private void finishSession() {
+        mCounting = false;
+        mFinishing = false;
+        mSessions++;
+        mTotalSteps += mTracker.getStepCount();
+        if (mTracker.getCounterValue() != -1) {
+            mBaselineValue = mTracker.getCounterValue();
+        }
+
+        if (mReport) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "Session %d: %d steps, minutes [",
+                    mSessions, mTracker.getStepCount()));
+            for (int minute = 0; minute < mBuckets.getMinuteCount(); minute++) {
+                builder.append((minute > 0) ? ", " : "").append(mBuckets.getSteps(minute));
+            }
+            System.out.println(builder.append(']'));
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread so far, if supported by the JVM.
+     *
+     * @return Allocated bytes, or -1 if unknown
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static fi.craplab.roameo.sensor.CallStateMachine.CALL_STATE_IDLE;
+import static fi.craplab.roameo.sensor.CallStateMachine.CALL_STATE_OFFHOOK;
+import static fi.craplab.roameo.sensor.CallStateMachine.CALL_STATE_RINGING;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Replays a small hand-written trace through {@link SensorTraceReplay} and checks the
+ * resulting sessions and step totals.
+ */
+public class SensorTraceReplayTest {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private File mTraceFile;
+    private DataOutputStream mOutput;
+
+    @Before
+    public void setUp() throws IOException {
+        mTraceFile = File.createTempFile("trace", ".bin");
+        mOutput = new DataOutputStream(new FileOutputStream(mTraceFile));
+        mOutput.writeInt(SensorTraceRecorder.MAGIC);
+        mOutput.writeInt(SensorTraceRecorder.VERSION);
+        mOutput.writeLong(0);
+        mOutput.writeLong(0);
+    }
+
+    @After
+    public void tearDown() {
+        mTraceFile.delete();
+    }
+
+    @Test
+    public void sessionsAndSteps() throws IOException {
+        callState(0, CALL_STATE_IDLE);
+        // between calls, baseline for the first session
+        steps(1, 1000);
+
+        // incoming call
+        callState(2, CALL_STATE_RINGING);
+        callState(3, CALL_STATE_OFFHOOK);
+        steps(10, 1010);
+        steps(70, 1030);
+        callState(80, CALL_STATE_IDLE);
+        // flushed from the FIFO after hang-up, but counted before it
+        steps(79, 1035);
+        // counted after hang-up, baseline for the second session
+        steps(90, 1040);
+
+        // outgoing call with a waiting call answered in between
+        callState(100, CALL_STATE_OFFHOOK);
+        steps(105, 1045);
+        callState(110, CALL_STATE_RINGING);
+        callState(115, CALL_STATE_OFFHOOK);
+        steps(120, 1050);
+        callState(130, CALL_STATE_IDLE);
+        mOutput.close();
+
+        SensorTraceReplay replay = new SensorTraceReplay();
+        replay.read(mTraceFile.getPath());
+        replay.replay();
+
+        assertEquals(2, replay.getSessionCount());
+        assertEquals(35 + 10, replay.getTotalSteps());
+
+        // replaying again gives the same result
+        replay.replay();
+        assertEquals(2, replay.getSessionCount());
+        assertEquals(45, replay.getTotalSteps());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        mOutput.close();
+        new FileOutputStream(mTraceFile).close();
+
+        new SensorTraceReplay().read(mTraceFile.getPath());
+    }
+
+    private void callState(long seconds, int state) throws IOException {
+        record(SensorTraceRecorder.TYPE_CALL_STATE, seconds, state);
+    }
+
+    private void steps(long seconds, int counterValue) throws IOException {
+        record(SensorTraceRecorder.TYPE_STEP_COUNTER, seconds, counterValue);
+    }
+
+    private void record(byte type, long seconds, int value) throws IOException {
+        mOutput.writeByte(type);
+        mOutput.writeLong(seconds * NANOS_PER_SECOND);
+        mOutput.writeInt(value);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Roameo - Your call for a healthier life
+ *
+ * Copyright (C) 2017 Sven Gregori <sven@craplab.fi>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ *
+ */
+
+package fi.craplab.roameo.sensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StepCountTrackerTest {
+    private final MinuteStepBuckets mBuckets = new MinuteStepBuckets();
+    private final StepCountTracker mTracker = new StepCountTracker(mBuckets);
+
+    @Test
+    public void firstValueWithoutBaselineIsOffset() {
+        mTracker.reset();
+        assertFalse(mTracker.hasCounterOffset());
+
+        assertEquals(0, mTracker.onCounterValue(500, 1000));
+        assertTrue(mTracker.hasCounterOffset());
+        assertEquals(500, mTracker.getCounterOffset());
+        assertEquals(3, mTracker.onCounterValue(503, 2000));
+
+        assertEquals(3, mTracker.getStepCount());
+        assertEquals(3, mBuckets.getSteps(0));
+    }
+
+    @Test
+    public void baselineCountsFirstValue() {
+        mTracker.reset(500);
+
+        assertEquals(2, mTracker.onCounterValue(502, 1000));
+        assertEquals(2, mTracker.getStepCount());
+    }
+
+    @Test
+    public void repeatedValueIsIgnored() {
+        mTracker.reset(500);
+        mTracker.onCounterValue(502, 1000);
+
+        assertEquals(0, mTracker.onCounterValue(502, 2000));
+        assertEquals(2, mTracker.getStepCount());
+    }
+
+    @Test
+    public void valueBeforeStartMovesOffset() {
+        mTracker.reset(500);
+
+        assertEquals(0, mTracker.onCounterValue(510, -200));
+        assertEquals(510, mTracker.getCounterOffset());
+        assertEquals(5, mTracker.onCounterValue(515, 100));
+        assertEquals(5, mTracker.getStepCount());
+    }
+
+    @Test
+    public void stepsGoIntoTheirMinute() {
+        mTracker.reset(0);
+        mTracker.onCounterValue(10, 30000);
+        mTracker.onCounterValue(15, 59999);
+        mTracker.onCounterValue(40, 60000);
+        mTracker.onCounterValue(41, 185000);
+
+        assertEquals(41, mTracker.getStepCount());
+        assertEquals(4, mBuckets.getMinuteCount());
+        assertEquals(15, mBuckets.getSteps(0));
+        assertEquals(25, mBuckets.getSteps(1));
+        assertEquals(0, mBuckets.getSteps(2));
+        assertEquals(1, mBuckets.getSteps(3));
+    }
+
+    @Test
+    public void resetClearsMinutes() {
+        mTracker.reset(0);
+        mTracker.onCounterValue(10, 1000);
+        mTracker.reset(10);
+
+        assertEquals(0, mTracker.getStepCount());
+        assertEquals(0, mBuckets.getMinuteCount());
+        assertEquals(10, mTracker.getCounterValue());
+    }
+}